@@ -4,27 +4,42 @@
 
 import java.io.IOException;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import org.apache.lucene.index.AtomicReaderContext;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.NumericDocValues;
-import org.apache.lucene.index.MultiDocValues;
 import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.index.ReaderUtil;
 
 /**
  * DocLengthStore is used to access the document lengths of indexed docs.
+ * Lengths are read from each segment's norms, so that a lookup doesn't
+ * go through a composite view of every segment.
  */
 public class DocLengthStore  {
 
   private IndexReader reader;
-  private  Map<String, NumericDocValues> values = new HashMap<String, NumericDocValues>();
+  private List<AtomicReaderContext> leaves;
+
+  /**
+   * The norms of each field.  values.get(field)[i] is the norms of the
+   * i'th segment, or null if no document in that segment has the field.
+   */
+  private  Map<String, NumericDocValues[]> values = new HashMap<String, NumericDocValues[]>();
 
   /**
    * @param reader IndexReader object created in {@link Idx}.
    */
   public DocLengthStore(IndexReader reader) throws IOException {
     this.reader = reader;
+    this.leaves = reader.leaves();
     for (String field : MultiFields.getIndexedFields(reader)) {
-      this.values.put(field, MultiDocValues.getNormValues(reader, field));      
+      NumericDocValues[] norms = new NumericDocValues[this.leaves.size()];
+      for (int i = 0; i < norms.length; i++) {
+        norms[i] = this.leaves.get(i).reader().getNormValues(field);
+      }
+      this.values.put(field, norms);
     }
   }
 
@@ -36,6 +51,8 @@ public class DocLengthStore  {
    * @param docid The internal docid in the lucene index.
    */
   public long getDocLength(String fieldname, int docid) throws IOException {
-    return values.get(fieldname).get(docid);
+    int i = ReaderUtil.subIndex(docid, this.leaves);
+    NumericDocValues norms = values.get(fieldname)[i];
+    return (norms == null) ? 0 : norms.get(docid - this.leaves.get(i).docBase);
   }
 }
@@ -0,0 +1,114 @@
+/**
+ *  Copyright (c) 2015, Carnegie Mellon University.  All Rights Reserved.
+ */
+import java.util.*;
+
+/**
+ *  Keeps the most frequent of a stream of terms, i.e., the ones with
+ *  the largest dfs.  Terms with the same df are ranked alphabetically,
+ *  so the terms that are kept don't depend on the order of the stream.
+ */
+public class FrequentTerms {
+
+  //  --------------- Constants and variables -----------------------
+
+  /**
+   *  A term and its df.
+   */
+  private static class Entry {
+    private final String term;
+    private final int df;
+
+    private Entry (String term, int df) {
+      this.term = term;
+      this.df = df;
+    }
+  }
+
+  /**
+   *  The number of terms to keep.
+   */
+  private final int maxTerms;
+
+  /**
+   *  A min-heap of the terms kept, whose root is the term that is
+   *  replaced next:  the least frequent, and the last alphabetically.
+   */
+  private final PriorityQueue<Entry> heap;
+
+  //  --------------- Methods ---------------------------------------
+
+  /**
+   *  @param maxTerms The number of terms to keep.
+   */
+  public FrequentTerms (int maxTerms) {
+
+    if (maxTerms < 1)
+      throw new IllegalArgumentException ("maxTerms must be >= 1.");
+
+    this.maxTerms = maxTerms;
+    this.heap = new PriorityQueue<Entry> (
+      Math.min (maxTerms, 1024) + 1, new Comparator<Entry> () {
+          public int compare (Entry a, Entry b) {
+            if (a.df != b.df)
+              return Integer.compare (a.df, b.df);
+
+            return b.term.compareTo (a.term);
+          }
+        });
+  }
+
+  /**
+   *  Add a term.  If too many terms are kept, the least frequent is
+   *  dropped.
+   *  @param term The term.
+   *  @param df The term's df.
+   */
+  public void add (String term, int df) {
+
+    this.heap.add (new Entry (term, df));
+
+    if (this.heap.size () > this.maxTerms)
+      this.heap.poll ();
+  }
+
+  /**
+   *  Get the number of terms kept.
+   *  @return The number of terms.
+   */
+  public int size () {
+    return this.heap.size ();
+  }
+
+  /**
+   *  Get the sum of the dfs of the terms kept.
+   *  @return The sum of the dfs.
+   */
+  public long getSumOfDfs () {
+
+    long sum = 0;
+
+    for (Entry e : this.heap)
+      sum += e.df;
+
+    return sum;
+  }
+
+  /**
+   *  Get the terms kept, in order of increasing df.
+   *  @return The terms.
+   */
+  public String[] getTerms () {
+
+    Entry[] entries = this.heap.toArray (new Entry[this.heap.size ()]);
+
+    Arrays.sort (entries, this.heap.comparator ());
+
+    String[] terms = new String[entries.length];
+
+    for (int i = 0; i < entries.length; i++)
+      terms[i] = entries[i].term;
+
+    return terms;
+  }
+}
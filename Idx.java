@@ -19,6 +19,12 @@ public class Idx {
   public static IndexReader INDEXREADER=null;
   private static DocLengthStore DOCLENGTHSTORE;
 
+  /**
+   *  The index's segments, in docid order.  A document's internal docid
+   *  is its segment's docBase plus its docid within the segment.
+   */
+  public static List<AtomicReaderContext> LEAVES=null;
+
   //  --------------- Methods ---------------------------------------
 
   /**
@@ -29,7 +35,8 @@ public class Idx {
    *  @throws IOException Error accessing the Lucene index.
    */
   public static String getAttribute (String attributeName, int docid) throws IOException {
-    Document d = Idx.INDEXREADER.document (docid);
+    AtomicReaderContext leaf = Idx.getLeaf (docid);
+    Document d = leaf.reader().document (docid - leaf.docBase);
     return d.get (attributeName);
   }
 
@@ -50,11 +57,41 @@ public class Idx {
    * @throws IOException Error accessing the Lucene index.
    */
   public static String getExternalDocid(int iid) throws IOException {
-    Document d = Idx.INDEXREADER.document(iid);
+    AtomicReaderContext leaf = Idx.getLeaf (iid);
+    Document d = leaf.reader().document(iid - leaf.docBase);
     String eid = d.get("externalId");
     return eid;
   }
 
+  /**
+   *  Get the segment that contains the specified document.
+   *  @param docid The internal docid in the lucene index.
+   *  @return The segment's context, which has its reader and docBase.
+   */
+  public static AtomicReaderContext getLeaf (int docid) {
+    return Idx.LEAVES.get (ReaderUtil.subIndex (docid, Idx.LEAVES));
+  }
+
+  /**
+   *  Get a segment's inverted list for a term, with or without
+   *  locations.  Deleted documents are skipped.  The docids are
+   *  relative to the segment's docBase.
+   *  @param leaf The segment.
+   *  @param term The term.
+   *  @param positions Whether the inverted list must have locations.
+   *  @return The segment's inverted list, or null if the term doesn't
+   *  occur in the segment.  If positions is true, it is a
+   *  DocsAndPositionsEnum.
+   *  @throws IOException Error accessing the Lucene index.
+   */
+  public static DocsEnum getPostings (AtomicReaderContext leaf, Term term,
+                                      boolean positions) throws IOException {
+    if (positions)
+      return leaf.reader().termPositionsEnum (term);
+    else
+      return leaf.reader().termDocsEnum (term);
+  }
+
   /**
    *  Get the length of the specified field in the specified document.
    *  @param fieldName Name of field to access lengths.
@@ -100,6 +137,15 @@ public class Idx {
     return Idx.INDEXREADER.numDocs();
   }
 
+  /**
+   *  Get one more than the largest internal docid, which is the size of
+   *  an array that is indexed by internal docid.
+   *  @return One more than the largest internal docid.
+   */
+  public static int getMaxDocid () {
+    return Idx.INDEXREADER.maxDoc();
+  }
+
   /**
    *  Get the total number of term occurrences contained in all
    *  instances of the specified field in the corpus (e.g., add up the
@@ -130,6 +176,8 @@ public class Idx {
     if (Idx.INDEXREADER == null) {
       throw new IllegalArgumentException ("Unable to open the index.");
     }
+
+    Idx.LEAVES = Idx.INDEXREADER.leaves ();
   
     //  Lucene doesn't store field lengths the way that we want them,
     //  so we have our own document length store.
@@ -14,11 +14,36 @@ import org.apache.lucene.search.*;
  *  provides methods for accessing and manipulating inverted lists.
  *  Its purpose is to provide a simpler view of inverted lists than
  *  Lucene's native implementation.
+ *  <p>
+ *  Postings are stored in a columnar layout of primitive arrays.
+ *  The n'th posting has docid docids[n] and term frequency tfs[n].
+ *  Its locations are stored in the shared positions array, starting
+ *  at positionsStart[n] and ending just before positionsStart[n+1].
+ *  This avoids one object (and a boxed Integer per location) for
+ *  every posting, which matters for terms with a large df.
+ *  </p>
  */
 public class InvList {
 
   //  --------------- Constants and variables -----------------------
 
+  /**
+   *  The initial capacity of an inverted list that doesn't know its
+   *  size in advance.
+   */
+  private static final int DEFAULT_CAPACITY = 16;
+
+  /**
+   *  The number of postings covered by each skip entry.
+   */
+  public static final int SKIP_INTERVAL = 128;
+
+  /**
+   *  An estimate of the bytes used by an inverted list object and its
+   *  array headers, excluding the array contents.
+   */
+  protected static final int OBJECT_OVERHEAD = 128;
+
   /**
    *  Collection term frequency: The number of times that a term
    *  occurs across all instances of the specified field.
@@ -37,50 +62,55 @@ public class InvList {
   public String field;
 
   /**
-   *  Postings that contain information about the occurrence of the
-   *  term in individual documents.
+   *  The internal ids of the documents that contain the term in the
+   *  specified field, in increasing order.  Only the first df
+   *  entries are valid.
    */
-  public Vector<DocPosting> postings = new Vector<DocPosting>();
-
-  //  --------------- Nested classes --------------------------------
+  protected int[] docids;
 
   /**
-   *  Utility class that makes it easier to construct postings.
+   *  Term frequencies:  tfs[n] is the number of times the term occurs
+   *  in the specified field of document docids[n].
    */
-  public class DocPosting {
+  protected int[] tfs;
 
-    /**
-     *  The internal id of a document that contains the term in
-     *  the specified field.
-     */
-    public int docid = 0;
+  /**
+   *  The offset of each posting's first location in the positions
+   *  array.  positionsStart[df] is the end of the last posting.
+   */
+  protected int[] positionsStart;
 
-    /**
-     *  Term frequency:  The number of times the term occurs in
-     *  the specified field of the document.
-     */
-    public int tf = 0;
+  /**
+   *  The locations of every posting, stored back to back.  Only the
+   *  first ctf entries are valid.
+   */
+  protected int[] positions;
 
-    /**
-     *  The locations where the term occurs in the specified field
-     *  of the document.
-     */
-    public Vector<Integer> positions = new Vector<Integer>();
+  /**
+   *  False if any posting was stored without its locations.
+   */
+  protected boolean positionsStored = true;
 
-    public DocPosting(int d, int... locations) {
-      this.docid = d;
-      this.tf = locations.length;
-      for (int i = 0; i < locations.length; i++)
-        this.positions.add(locations[i]);
-    }
+  /**
+   *  Skip entries.  skipDocids[b] is the last docid of block b, i.e.,
+   *  of postings b*SKIP_INTERVAL ... (b+1)*SKIP_INTERVAL-1.  Only full
+   *  blocks have skip entries.  They are maintained as postings are
+   *  appended, so they are built once when the list is constructed.
+   */
+  protected int[] skipDocids;
 
-    public DocPosting(int d, List<Integer> locations) {
-      this.docid = d;
-      this.tf = locations.size();
-      for (int i = 0; i < locations.size(); i++)
-        this.positions.add(locations.get(i));
-    }
-  }
+  /**
+   *  Block maxima, for dynamic pruning.  Block b is the same block of
+   *  postings that skip entry b covers, and the last block may be
+   *  partial.  blockMaxTfs[b] is the largest tf in block b, and
+   *  blockMinLengths[b] is the shortest field length of its documents,
+   *  so a retrieval model can bound the score of every document in the
+   *  block.  They are null until computeBlockMaxima is called, which
+   *  happens when the list is exported, or cached with the blockMax
+   *  option.
+   */
+  protected int[] blockMaxTfs = null;
+  protected int[] blockMinLengths = null;
 
   //  --------------- Methods ---------------------------------------
 
@@ -88,6 +118,7 @@ public class InvList {
    *  Constructor.  An empty inverted list. Useful for some query operators.
    */
   public InvList() {
+    this.allocate (DEFAULT_CAPACITY, DEFAULT_CAPACITY);
   }
 
   /**
@@ -96,6 +127,25 @@ public class InvList {
    */
   public InvList(String fieldString) {
     this.field = new String (fieldString);
+    this.allocate (DEFAULT_CAPACITY, DEFAULT_CAPACITY);
+  }
+
+  /**
+   *  Get an inverted list that shares another list's postings.
+   *  @param list The inverted list to share.
+   */
+  protected InvList(InvList list) {
+    this.field = list.field;
+    this.df = list.df;
+    this.ctf = list.ctf;
+    this.docids = list.docids;
+    this.tfs = list.tfs;
+    this.positionsStart = list.positionsStart;
+    this.positions = list.positions;
+    this.skipDocids = list.skipDocids;
+    this.blockMaxTfs = list.blockMaxTfs;
+    this.blockMinLengths = list.blockMinLengths;
+    this.positionsStored = list.positionsStored;
   }
 
   /**
@@ -105,6 +155,23 @@ public class InvList {
    *  @throws IOException Error accessing the Lucene index.
    */
   public InvList(String termString, String fieldString) throws IOException {
+    this (termString, fieldString, true);
+  }
+
+  /**
+   *  Get an inverted list from the index, with or without locations.
+   *  Reading locations is most of the cost of reading an inverted list,
+   *  so it is skipped when the list's consumer only needs docids and
+   *  term frequencies.  If locations are not read, every posting has
+   *  a term frequency but no locations, so the list must not be used
+   *  by a locIterator.
+   *  @param termString The processed (stemmed, lower-cased, etc) term string.
+   *  @param fieldString The field that the term occurs in.
+   *  @param positions Whether to read the locations of each posting.
+   *  @throws IOException Error accessing the Lucene index.
+   */
+  public InvList(String termString, String fieldString, boolean positions)
+    throws IOException {
 
     //  Store the field name.  This is used by other query operators.
 
@@ -115,32 +182,110 @@ public class InvList {
     BytesRef termBytes = new BytesRef(termString);
     Term term = new Term(fieldString, termBytes);
 
-    if (Idx.INDEXREADER.docFreq(term) < 1)
+    int docFreq = Idx.INDEXREADER.docFreq(term);
+
+    if (docFreq < 1) {
+      this.allocate (0, 0);
       return;
+    }
 
-    //  Lookup the inverted list.
+    //  The term dictionary provides the list sizes, so the arrays can
+    //  be allocated once.  The ctf may include deleted documents, so
+    //  it is only an upper bound.
 
-    DocsAndPositionsEnum iList =
-      MultiFields.getTermPositionsEnum(Idx.INDEXREADER,
-				       MultiFields.getLiveDocs(Idx.INDEXREADER),
-				       fieldString, termBytes);
+    this.allocate (docFreq,
+                   (! positions) ? 0 :
+                   (int) Math.max (docFreq, Idx.INDEXREADER.totalTermFreq(term)));
 
     //  Copy from Lucene inverted list format to our inverted list
     //  format. This is a little inefficient, but allows query
     //  operators such as #SYN and #NEAR/n to be insulated from the
-    //  details of Lucene inverted list implementations.
+    //  details of Lucene inverted list implementations.  Each segment
+    //  is read separately, and its docids are rebased by its docBase.
+
+    for (AtomicReaderContext leaf : Idx.LEAVES) {
+
+      DocsEnum iList = Idx.getPostings (leaf, term, positions);
+
+      if (iList == null)
+        continue;
+
+      while (iList.nextDoc() != DocIdSetIterator.NO_MORE_DOCS) {
+
+        int docid = leaf.docBase + iList.docID();
+        int tf = iList.freq();
+
+        if (! positions) {
+          this.appendPostingTf (docid, tf);
+          continue;
+        }
+
+        DocsAndPositionsEnum pList = (DocsAndPositionsEnum) iList;
+
+        this.ensureCapacity (this.df + 1, this.ctf + tf);
+        this.docids[this.df] = docid;
+        this.tfs[this.df] = tf;
+
+        for (int j = 0; j < tf; j++)
+          this.positions[this.ctf + j] = pList.nextPosition();
+
+        this.df++;
+        this.ctf += tf;
+        this.positionsStart[this.df] = this.ctf;
+        this.addSkipEntry ();
+      }
+    }
+  }
+
+  /**
+   *  Allocate the posting arrays.
+   *  @param docCapacity The number of postings to make room for.
+   *  @param locCapacity The number of locations to make room for.
+   */
+  protected void allocate (int docCapacity, int locCapacity) {
+    this.docids = new int[docCapacity];
+    this.tfs = new int[docCapacity];
+    this.positionsStart = new int[docCapacity + 1];
+    this.positions = new int[locCapacity];
+    this.skipDocids = new int[docCapacity / SKIP_INTERVAL];
+  }
+
+  /**
+   *  Add a skip entry if the last posting that was appended completed
+   *  a block.
+   */
+  private void addSkipEntry () {
 
-    while (iList.nextDoc() != DocIdSetIterator.NO_MORE_DOCS) {
+    if ((this.df % SKIP_INTERVAL) != 0)
+      return;
 
-      int tf = iList.freq();
-      int[] positions = new int[tf];
+    int block = this.df / SKIP_INTERVAL - 1;
 
-      for (int j = 0; j < tf; j++)
-        positions[j] = iList.nextPosition();
+    if (block >= this.skipDocids.length)
+      this.skipDocids = Arrays.copyOf (this.skipDocids,
+                                       Math.max (block + 1, 2 * this.skipDocids.length));
 
-      this.postings.add(new DocPosting(iList.docID(), positions));
-      this.df++;
-      this.ctf += tf;
+    this.skipDocids[block] = this.docids[this.df - 1];
+  }
+
+  /**
+   *  Grow the posting arrays, if necessary, so that they can hold the
+   *  specified number of postings and locations.
+   *  @param docCapacity The number of postings required.
+   *  @param locCapacity The number of locations required.
+   */
+  private void ensureCapacity (int docCapacity, int locCapacity) {
+
+    if (docCapacity > this.docids.length) {
+      int n = Math.max (docCapacity, 2 * this.docids.length);
+      this.docids = Arrays.copyOf (this.docids, n);
+      this.tfs = Arrays.copyOf (this.tfs, n);
+      this.positionsStart = Arrays.copyOf (this.positionsStart, n + 1);
+    }
+
+    if (locCapacity > this.positions.length) {
+      int n = Math.max (locCapacity, 2 * this.positions.length);
+      this.positions = Arrays.copyOf (this.positions, n);
     }
   }
 
@@ -148,33 +293,273 @@ public class InvList {
    *  Append a posting to the posting list.  Posting must be appended
    *  in docid order, otherwise this method fails.
    *  @param docid The internal document id of the posting.
-   *  @param positions A list of positions where the term occurs.
+   *  @param locations An array that contains the locations where the
+   *         term occurs, in increasing order.
+   *  @param start The index of the first location in the array.
+   *  @param count The number of locations.
    *  @return true if the posting was added successfully, otherwise false.
    */
-  public boolean appendPosting (int docid, List<Integer> positions) {
-    
+  public boolean appendPosting (int docid, int[] locations, int start, int count) {
+
     //  A posting can only be appended if its docid is greater than
     //  the last docid.
 
-    if ((this.df > 1) &&
-	(this.postings.get(this.df-1).docid >= docid))
+    if ((this.df > 0) &&
+	(this.docids[this.df-1] >= docid))
+      return false;
+
+    int offset = this.positionsStart[this.df];
+
+    this.ensureCapacity (this.df + 1, offset + count);
+    this.docids[this.df] = docid;
+    this.tfs[this.df] = count;
+    System.arraycopy (locations, start, this.positions, offset, count);
+
+    this.df ++;
+    this.ctf += count;
+    this.positionsStart[this.df] = offset + count;
+    this.addSkipEntry ();
+    return true;
+  }
+
+  /**
+   *  Append a posting to the posting list.  Posting must be appended
+   *  in docid order, otherwise this method fails.
+   *  @param docid The internal document id of the posting.
+   *  @param locations The locations where the term occurs, in increasing order.
+   *  @return true if the posting was added successfully, otherwise false.
+   */
+  public boolean appendPosting (int docid, int... locations) {
+    return this.appendPosting (docid, locations, 0, locations.length);
+  }
+
+  /**
+   *  Append a posting that has a term frequency but no locations.
+   *  This is for inverted lists whose consumers never ask for
+   *  locations.  Posting must be appended in docid order, otherwise
+   *  this method fails.
+   *  @param docid The internal document id of the posting.
+   *  @param tf The term frequency of the posting.
+   *  @return true if the posting was added successfully, otherwise false.
+   */
+  public boolean appendPostingTf (int docid, int tf) {
+
+    if ((this.df > 0) &&
+	(this.docids[this.df-1] >= docid))
       return false;
 
-    DocPosting p = new DocPosting (docid, positions);
+    this.positionsStored = false;
+    this.ensureCapacity (this.df + 1, 0);
+    this.docids[this.df] = docid;
+    this.tfs[this.df] = tf;
+    this.positionsStart[this.df + 1] = this.positionsStart[this.df];
 
-    this.postings.add (p);
     this.df ++;
-    this.ctf += p.tf;
+    this.ctf += tf;
+    this.addSkipEntry ();
     return true;
   }
 
+  /**
+   *  Advance from the n'th posting to the first posting whose docid is
+   *  at least the specified docid.  The skip entries locate the block
+   *  that contains the docid, and then a galloping search within the
+   *  block finds the posting.  Long skips touch only a few skip entries
+   *  and one block of docids.
+   *  @param n The index of the posting to start from.
+   *  @param docid The internal document id to advance to.
+   *  @return The index of the posting, or df if there is no such posting.
+   */
+  public int advanceTo(int n, int docid) {
+
+    if ((n >= this.df) || (this.docids[n] >= docid))
+      return n;
+
+    int block = n / SKIP_INTERVAL;
+    int numSkips = this.df / SKIP_INTERVAL;
+
+    if ((block < numSkips) && (this.skipDocids[block] < docid)) {
+      block = gallop (this.skipDocids, block + 1, numSkips, docid);
+      n = block * SKIP_INTERVAL;
+    }
+
+    return gallop (this.docids, n,
+                   Math.min (this.df, (block + 1) * SKIP_INTERVAL), docid);
+  }
+
+  /**
+   *  Find the first element of a sorted array range that is at least
+   *  the specified value.  This is a galloping search:  the step size
+   *  doubles until it passes the value, and then a binary search finds
+   *  the element.  The cost is logarithmic in the distance moved.
+   *  @param a A sorted array.
+   *  @param from The index of the first element to consider.
+   *  @param to The index just past the last element to consider.
+   *  @param value The value to search for.
+   *  @return The index of the element, or to if there is no such element.
+   */
+  public static int gallop(int[] a, int from, int to, int value) {
+
+    if ((from >= to) || (a[from] >= value))
+      return from;
+
+    //  Gallop.  Afterwards a[lo] < value, and either hi is to or
+    //  a[hi] >= value.
+
+    int lo = from;
+    int hi = from + 1;
+    int step = 1;
+
+    while ((hi < to) && (a[hi] < value)) {
+      lo = hi;
+      step <<= 1;
+      hi = (to - lo > step) ? lo + step : to;
+    }
+
+    //  Binary search between lo and hi.
+
+    while (hi - lo > 1) {
+      int mid = (lo + hi) >>> 1;
+
+      if (a[mid] < value)
+        lo = mid;
+      else
+        hi = mid;
+    }
+
+    return hi;
+  }
+
+  /**
+   *  Get the number of blocks of postings, including a last block that
+   *  may be partial.
+   *  @return The number of blocks.
+   */
+  public int getNumBlocks() {
+    return (this.df + SKIP_INTERVAL - 1) / SKIP_INTERVAL;
+  }
+
+  /**
+   *  Find the block that advanceTo(n, docid) would stop in, without
+   *  reading any postings.  The skip entries locate the block.
+   *  @param n The index of the posting to start from.
+   *  @param docid The internal document id to advance to.
+   *  @return The index of the block, or getNumBlocks() if there is no
+   *  such posting.
+   */
+  public int getBlock(int n, int docid) {
+
+    int numBlocks = this.getNumBlocks ();
+
+    if (n >= this.df)
+      return numBlocks;
+
+    int block = n / SKIP_INTERVAL;
+    int numSkips = this.df / SKIP_INTERVAL;
+
+    if ((block < numSkips) && (this.skipDocids[block] < docid))
+      block = gallop (this.skipDocids, block + 1, numSkips, docid);
+
+    if ((block < numBlocks) && (this.getBlockLastDocid (block) < docid))
+      return numBlocks;
+
+    return block;
+  }
+
+  /**
+   *  Get the last docid of a block.
+   *  @param b The index of the block.
+   *  @return The internal document id.
+   */
+  public int getBlockLastDocid(int b) {
+    return (b < this.df / SKIP_INTERVAL) ? this.skipDocids[b] : this.docids[this.df - 1];
+  }
+
+  /**
+   *  Compute the block maxima, unless they are already computed.  The
+   *  field length of every posting is read from the index.  Lists that
+   *  can only be iterated once don't have block maxima.
+   *  @throws IOException Error accessing the Lucene index.
+   */
+  public void computeBlockMaxima() throws IOException {
+
+    if ((this.blockMaxTfs != null) || this.isSequential ())
+      return;
+
+    int numBlocks = this.getNumBlocks ();
+    int[] maxTfs = new int[numBlocks];
+    int[] minLengths = new int[numBlocks];
+
+    for (int b = 0; b < numBlocks; b++) {
+      int last = Math.min (this.df, (b + 1) * SKIP_INTERVAL);
+      int maxTf = 0;
+      int minLength = Integer.MAX_VALUE;
+
+      for (int n = b * SKIP_INTERVAL; n < last; n++) {
+        maxTf = Math.max (maxTf, this.getTf (n));
+        minLength = Math.min (minLength,
+                              Idx.getFieldLength (this.field, this.getDocid (n)));
+      }
+
+      maxTfs[b] = maxTf;
+      minLengths[b] = minLength;
+    }
+
+    this.blockMinLengths = minLengths;
+    this.blockMaxTfs = maxTfs;
+  }
+
+  /**
+   *  Indicates whether the inverted list has block maxima.
+   *  @return True if block maxima are available, otherwise false.
+   */
+  public boolean hasBlockMaxima() {
+    return (this.blockMaxTfs != null);
+  }
+
+  /**
+   *  Get the largest term frequency in a block.
+   *  @param b The index of the block.
+   *  @return The largest term frequency.
+   */
+  public int getBlockMaxTf(int b) {
+    return this.blockMaxTfs[b];
+  }
+
+  /**
+   *  Get the shortest field length of the documents in a block.
+   *  @param b The index of the block.
+   *  @return The shortest field length.
+   */
+  public int getBlockMinLength(int b) {
+    return this.blockMinLengths[b];
+  }
+
+  /**
+   *  Indicates whether the inverted list has an n'th posting.
+   *  @param n The index of a posting.
+   *  @return True if the posting exists, otherwise false.
+   */
+  public boolean hasPosting(int n) {
+    return (n < this.df);
+  }
+
+  /**
+   *  Indicates whether the inverted list stores the locations of its
+   *  postings.
+   *  @return True if locations are available, otherwise false.
+   */
+  public boolean hasPositions() {
+    return this.positionsStored;
+  }
+
   /**
    *  Get the n'th document id from the inverted list.
-   *  @param docid The index of the requested document.
+   *  @param n The index of the requested document.
    *  @return The internal document id.
    */
-  public int getDocid(int docid) {
-    return this.postings.get(docid).docid;
+  public int getDocid(int n) {
+    return this.docids[n];
   }
 
   /**
@@ -183,7 +568,65 @@ public class InvList {
    *  @return The document's term frequency.
    */
   public int getTf(int n) {
-    return this.postings.get(n).tf;
+    return this.tfs[n];
+  }
+
+  /**
+   *  Get the array that stores the locations of the n'th document of
+   *  the inverted list.  The locations start at getPositionsStart(n)
+   *  and there are getTf(n) of them.  The array is shared, so callers
+   *  must not modify it.
+   *  @param n The index of the requested document.
+   *  @return An array that contains the document's locations.
+   */
+  public int[] getPositions(int n) {
+    return this.positions;
+  }
+
+  /**
+   *  Get the index of the first location of the n'th document in the
+   *  array returned by getPositions(n).
+   *  @param n The index of the requested document.
+   *  @return The index of the document's first location.
+   */
+  public int getPositionsStart(int n) {
+    return this.positionsStart[n];
+  }
+
+  /**
+   *  Get an inverted list that has the same postings as this list, and
+   *  that can be iterated independently of it.  The posting arrays are
+   *  shared, not copied, so neither list may be appended to afterwards.
+   *  The duplicate is a different object, so query operators that
+   *  share a list are still distinct (e.g., in a HashMap).  Subclasses
+   *  that keep iteration state override this.
+   *  @return An inverted list.
+   */
+  public InvList duplicate() {
+    return new InvList (this);
+  }
+
+  /**
+   *  Indicates whether the inverted list can only be iterated once, in
+   *  increasing index order.  Lists that are read or computed as they
+   *  are iterated can't go back to an earlier posting.
+   *  @return True if the list can only be iterated once, otherwise false.
+   */
+  public boolean isSequential() {
+    return false;
+  }
+
+  /**
+   *  Get the approximate number of bytes of memory that the inverted
+   *  list uses.
+   *  @return The size of the inverted list in bytes.
+   */
+  public long getMemoryUsage() {
+    return OBJECT_OVERHEAD +
+      4L * (this.docids.length + this.tfs.length +
+            this.positionsStart.length + this.positions.length +
+            this.skipDocids.length) +
+      ((this.blockMaxTfs == null) ? 0 : 8L * this.blockMaxTfs.length);
   }
 
   /**
@@ -194,11 +637,14 @@ public class InvList {
     System.out.println("df:  " + this.df + ", ctf: " + this.ctf);
 
     for (int i = 0; i < this.df; i++) {
-      System.out.print("docid:  " + this.postings.elementAt(i).docid + ", tf: "
-          + this.postings.elementAt(i).tf + ", locs: ");
+      System.out.print("docid:  " + this.getDocid(i) + ", tf: "
+          + this.getTf(i) + ", locs: ");
+
+      int[] locations = this.getPositions(i);
+      int start = this.getPositionsStart(i);
 
-      for (int j = 0; j < this.postings.elementAt(i).tf; j++) {
-        System.out.print(this.postings.elementAt(i).positions.elementAt(j) + " ");
+      for (int j = 0; j < this.getTf(i); j++) {
+        System.out.print(locations[start + j] + " ");
       }
 
       System.out.println();
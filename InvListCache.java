@@ -0,0 +1,241 @@
+/**
+ *  Copyright (c) 2015, Carnegie Mellon University.  All Rights Reserved.
+ */
+import java.io.*;
+import java.util.*;
+
+/**
+ *  A cache of inverted lists that is shared by all queries.  Query logs
+ *  repeat the same terms often, so TERM operators get their inverted
+ *  lists here instead of copying them from the index for every query.
+ *  They also repeat the same proximity and synonym expressions, so
+ *  QryIop operators cache their results here too, keyed by their
+ *  canonical forms.  Lists with and without locations are cached
+ *  separately.
+ *  <p>
+ *  The cache has a memory budget in bytes, which is measured with
+ *  InvList.getMemoryUsage.  When the budget is exceeded, the least
+ *  recently used lists are evicted.  A list that is larger than the
+ *  whole budget is not cached.  The cache is disabled until a budget
+ *  is set.
+ *  </p><p>
+ *  The methods are safe to use from several threads.  Lists are read
+ *  from the index without holding the lock, so a miss doesn't block
+ *  other lookups.  Callers get a duplicate of the cached list, so each
+ *  caller has its own iteration state.
+ *  </p>
+ */
+public class InvListCache {
+
+  //  --------------- Constants and variables -----------------------
+
+  /**
+   *  Cached lists, in least recently used order.
+   */
+  private static final LinkedHashMap<String, InvList> LISTS =
+    new LinkedHashMap<String, InvList> (16, 0.75f, true);
+
+  /**
+   *  The memory budget and the memory used, in bytes.
+   */
+  private static long capacity = 0;
+  private static long size = 0;
+
+  /**
+   *  Counters that describe how well the cache is working.
+   */
+  private static long hits = 0;
+  private static long misses = 0;
+  private static long evictions = 0;
+
+  //  --------------- Methods ---------------------------------------
+
+  /**
+   *  Set the memory budget.  A budget of 0 disables the cache.
+   *  @param bytes The budget in bytes.
+   */
+  public static synchronized void setCapacity (long bytes) {
+    if (bytes < 0)
+      throw new IllegalArgumentException ("The cache size must be >= 0.");
+
+    capacity = bytes;
+    evict (0);
+  }
+
+  /**
+   *  Indicates whether the cache is enabled.
+   *  @return True if the cache has a memory budget, otherwise false.
+   */
+  public static synchronized boolean isEnabled () {
+    return (capacity > 0);
+  }
+
+  /**
+   *  Get an inverted list, from the cache if possible, otherwise from
+   *  the index.
+   *  @param termString The processed (stemmed, lower-cased, etc) term string.
+   *  @param fieldString The field that the term occurs in.
+   *  @param compressed Whether the list should be an InvListCompressed.
+   *  @param positions Whether the list must have locations.  A cached
+   *  list that has locations is also used when they are not needed.
+   *  @param blockMaxima Whether a list that is cached gets block maxima.
+   *  @return The inverted list.
+   *  @throws IOException Error accessing the Lucene index.
+   */
+  public static InvList get (String termString, String fieldString,
+                             boolean compressed, boolean positions,
+                             boolean blockMaxima)
+    throws IOException {
+
+    String key = fieldString + ":" + termString + (compressed ? ":c" : "");
+    InvList list = getResult (key, positions);
+
+    if (list != null)
+      return list;
+
+    //  Read the list without holding the lock.
+
+    list = new InvList (termString, fieldString, positions);
+
+    if (compressed)
+      list = new InvListCompressed (list);
+
+    return putResult (key, list, blockMaxima);
+  }
+
+  /**
+   *  Get a cached inverted list.  This is also used for the results of
+   *  query operators, whose keys are their canonical forms.
+   *  @param key The key that the list was cached with.
+   *  @param positions Whether the list must have locations.  A cached
+   *  list that has locations is also used when they are not needed.
+   *  @return The inverted list, or null if it isn't cached.
+   */
+  public static synchronized InvList getResult (String key, boolean positions) {
+
+    InvList list = LISTS.get (key);
+
+    if ((list == null) && (! positions))
+      list = LISTS.get (key + ":f");
+
+    if (list == null) {
+      misses ++;
+      return null;
+    }
+
+    hits ++;
+    return list.duplicate ();
+  }
+
+  /**
+   *  Indicates whether an inverted list is cached.  The counters are not
+   *  changed, and the list does not become recently used.
+   *  @param key The key that the list was cached with.
+   *  @param positions Whether the list must have locations.
+   *  @return True if getResult would find the list, otherwise false.
+   */
+  public static synchronized boolean containsResult (String key, boolean positions) {
+    return LISTS.containsKey (key) ||
+      ((! positions) && LISTS.containsKey (key + ":f"));
+  }
+
+  /**
+   *  Cache an inverted list, if it fits within the budget.  Lists with
+   *  and without locations are cached separately.  If another thread
+   *  cached the same list in the meantime, that copy wins.  The list
+   *  must not be appended to afterwards.  If requested (e.g., for the
+   *  blockMax option), a list that will be cached gets block maxima
+   *  first, without holding the lock, so that every query that uses
+   *  it can prune with them.  Lists that don't fit aren't given block
+   *  maxima.
+   *  @param key The key to cache the list with.
+   *  @param list The inverted list.
+   *  @param blockMaxima Whether a list that is cached gets block maxima.
+   *  @return An inverted list that has the list's postings.
+   *  @throws IOException Error accessing the Lucene index.
+   */
+  public static InvList putResult (String key, InvList list, boolean blockMaxima)
+    throws IOException {
+
+    if (blockMaxima && willCache (key, list))
+      list.computeBlockMaxima ();
+
+    return insert (key, list);
+  }
+
+  /**
+   *  Indicates whether insert would cache an inverted list, i.e., it
+   *  isn't cached yet and it fits within the budget.
+   *  @param key The key to cache the list with.
+   *  @param list The inverted list.
+   *  @return True if the list would be cached, otherwise false.
+   */
+  private static synchronized boolean willCache (String key, InvList list) {
+    return (! LISTS.containsKey (getListKey (key, list))) &&
+      (list.getMemoryUsage () <= capacity);
+  }
+
+  /**
+   *  Get the key that an inverted list is stored with.  Lists without
+   *  locations are stored separately.
+   *  @param key The key to cache the list with.
+   *  @param list The inverted list.
+   *  @return The key that the list is stored with.
+   */
+  private static String getListKey (String key, InvList list) {
+    return list.hasPositions () ? key : (key + ":f");
+  }
+
+  /**
+   *  Cache an inverted list, if it fits within the budget.
+   *  @param key The key to cache the list with.
+   *  @param list The inverted list.
+   *  @return An inverted list that has the list's postings.
+   */
+  private static synchronized InvList insert (String key, InvList list) {
+
+    key = getListKey (key, list);
+
+    InvList cached = LISTS.get (key);
+
+    if (cached != null)
+      return cached.duplicate ();
+
+    long bytes = list.getMemoryUsage ();
+
+    if (bytes <= capacity) {
+      evict (bytes);
+      LISTS.put (key, list);
+      size += bytes;
+    }
+
+    return list.duplicate ();
+  }
+
+  /**
+   *  Evict least recently used lists until the specified number of
+   *  bytes fits within the budget.  The caller must hold the lock.
+   *  @param bytes The number of bytes to make room for.
+   */
+  private static void evict (long bytes) {
+
+    Iterator<Map.Entry<String, InvList>> it = LISTS.entrySet().iterator();
+
+    while ((size + bytes > capacity) && it.hasNext ()) {
+      size -= it.next().getValue().getMemoryUsage();
+      it.remove ();
+      evictions ++;
+    }
+  }
+
+  /**
+   *  Get a description of the cache's contents and counters.
+   *  @return A string that describes the cache.
+   */
+  public static synchronized String getStatistics () {
+    return ("InvListCache:  " + LISTS.size() + " lists, " +
+            size + " of " + capacity + " bytes, " +
+            hits + " hits, " + misses + " misses, " +
+            evictions + " evictions");
+  }
+}
@@ -0,0 +1,477 @@
+/**
+ *  Copyright (c) 2015, Carnegie Mellon University.  All Rights Reserved.
+ */
+
+import java.io.*;
+import java.nio.*;
+import java.util.*;
+
+/**
+ *  An inverted list that stores its postings compressed, and that
+ *  decodes them one block at a time as they are iterated.
+ *  <p>
+ *  Postings are grouped into blocks of InvList.SKIP_INTERVAL postings.
+ *  Within a block, docids are stored as gaps from the previous docid,
+ *  then the term frequencies, then (if the list has them) the locations
+ *  of each posting as gaps from the previous location in the same
+ *  posting.  Every number
+ *  is variable-byte (VByte) encoded:  7 bits per byte, and the high bit
+ *  is set on every byte except the last one.  The last docid and the
+ *  byte offset of each block are kept uncompressed, so that advanceTo
+ *  can find a block without decoding the blocks before it.
+ *  </p><p>
+ *  A block's docids and term frequencies are decoded when the block
+ *  is first touched.  Its locations are decoded only if a caller asks
+ *  for them.  The decoded block is iteration state, so a compressed
+ *  list that is shared by several query operators must be shared via
+ *  duplicate, which shares the compressed bytes but not the state.
+ *  </p>
+ */
+public class InvListCompressed extends InvList {
+
+  //  --------------- Constants and variables -----------------------
+
+  /**
+   *  The compressed blocks.  Only absolute get methods are used, so
+   *  the buffer can be shared by several readers.
+   */
+  protected ByteBuffer data;
+
+  /**
+   *  The number of blocks, the last docid in each block, and the byte
+   *  offset of each block in data.  blockOffsets[numBlocks] is the end
+   *  of the last block.
+   */
+  protected int numBlocks;
+  protected int[] blockLastDocids;
+  protected int[] blockOffsets;
+
+  /**
+   *  The decoded block:  its docids and tfs, the byte offset of its
+   *  locations, and, if they have been decoded, its locations.
+   */
+  private int block = -1;
+  private int[] blockDocids = new int[SKIP_INTERVAL];
+  private int[] blockTfs = new int[SKIP_INTERVAL];
+  private int blockLocationsOffset;
+  private boolean blockLocationsDecoded = false;
+  private int[] blockLocationsStart = new int[SKIP_INTERVAL + 1];
+  private int[] blockLocations = new int[SKIP_INTERVAL];
+
+  /**
+   *  The byte offset where the last readVInt stopped.
+   */
+  private int offset;
+
+  //  --------------- Methods ---------------------------------------
+
+  /**
+   *  Compress an inverted list.
+   *  @param list The inverted list to compress.
+   */
+  public InvListCompressed(InvList list) {
+
+    this.field = list.field;
+    this.df = list.df;
+    this.ctf = list.ctf;
+    this.positionsStored = list.hasPositions ();
+    this.allocate (0, 0);
+    this.blockMaxTfs = list.blockMaxTfs;
+    this.blockMinLengths = list.blockMinLengths;
+
+    this.numBlocks = (list.df + SKIP_INTERVAL - 1) / SKIP_INTERVAL;
+    this.blockLastDocids = new int[this.numBlocks];
+    this.blockOffsets = new int[this.numBlocks + 1];
+
+    ByteArray bytes = new ByteArray (list.df + list.ctf);
+    int prevDocid = 0;
+
+    for (int b = 0; b < this.numBlocks; b++) {
+
+      int first = b * SKIP_INTERVAL;
+      int last = Math.min (list.df, first + SKIP_INTERVAL);
+
+      this.blockOffsets[b] = bytes.size;
+
+      for (int n = first; n < last; n++) {
+        bytes.writeVInt (list.getDocid (n) - prevDocid);
+        prevDocid = list.getDocid (n);
+      }
+
+      for (int n = first; n < last; n++)
+        bytes.writeVInt (list.getTf (n));
+
+      for (int n = first; n < last && this.positionsStored; n++) {
+        int[] locations = list.getPositions (n);
+        int start = list.getPositionsStart (n);
+        int prevLocation = 0;
+
+        for (int j = start; j < start + list.getTf (n); j++) {
+          bytes.writeVInt (locations[j] - prevLocation);
+          prevLocation = locations[j];
+        }
+      }
+
+      this.blockLastDocids[b] = prevDocid;
+    }
+
+    this.blockOffsets[this.numBlocks] = bytes.size;
+    this.data = ByteBuffer.wrap (Arrays.copyOf (bytes.bytes, bytes.size));
+  }
+
+  /**
+   *  Get a compressed inverted list from a buffer that contains a list
+   *  that was written by the write method.  The compressed postings
+   *  are used in place, so the buffer may be a mapped file.
+   *  @param fieldString The field that the term occurs in.
+   *  @param buffer A buffer that contains one written inverted list.
+   */
+  public InvListCompressed(String fieldString, ByteBuffer buffer) {
+
+    this.field = fieldString;
+    this.allocate (0, 0);
+
+    this.df = buffer.getInt (0);
+    this.ctf = buffer.getInt (4);
+    this.numBlocks = buffer.getInt (8);
+    this.blockLastDocids = new int[this.numBlocks];
+    this.blockOffsets = new int[this.numBlocks + 1];
+
+    int p = 12;
+
+    for (int b = 0; b < this.numBlocks; b++, p += 4)
+      this.blockLastDocids[b] = buffer.getInt (p);
+
+    for (int b = 0; b <= this.numBlocks; b++, p += 4)
+      this.blockOffsets[b] = buffer.getInt (p);
+
+    this.blockMaxTfs = new int[this.numBlocks];
+    this.blockMinLengths = new int[this.numBlocks];
+
+    for (int b = 0; b < this.numBlocks; b++, p += 4)
+      this.blockMaxTfs[b] = buffer.getInt (p);
+
+    for (int b = 0; b < this.numBlocks; b++, p += 4)
+      this.blockMinLengths[b] = buffer.getInt (p);
+
+    ByteBuffer data = buffer.duplicate ();
+    data.position (p);
+    this.data = data.slice ();
+  }
+
+  /**
+   *  Create a compressed inverted list that shares another list's
+   *  compressed postings, but not its iteration state.
+   *  @param list The compressed inverted list to share.
+   */
+  protected InvListCompressed(InvListCompressed list) {
+    this.field = list.field;
+    this.df = list.df;
+    this.ctf = list.ctf;
+    this.positionsStored = list.positionsStored;
+    this.allocate (0, 0);
+    this.data = list.data;
+    this.numBlocks = list.numBlocks;
+    this.blockLastDocids = list.blockLastDocids;
+    this.blockOffsets = list.blockOffsets;
+    this.blockMaxTfs = list.blockMaxTfs;
+    this.blockMinLengths = list.blockMinLengths;
+  }
+
+  /**
+   *  Get an inverted list that shares this list's compressed postings
+   *  but has its own decoded block.
+   *  @return An inverted list.
+   */
+  public InvList duplicate() {
+    return new InvListCompressed (this);
+  }
+
+  /**
+   *  Decode the docids and term frequencies of a block, unless it is
+   *  already decoded.
+   *  @param b The index of the block.
+   */
+  private void decodeBlock(int b) {
+
+    if (b == this.block)
+      return;
+
+    int count = Math.min (SKIP_INTERVAL, this.df - b * SKIP_INTERVAL);
+    int docid = (b == 0) ? 0 : this.blockLastDocids[b - 1];
+
+    this.offset = this.blockOffsets[b];
+
+    for (int i = 0; i < count; i++) {
+      docid += this.readVInt ();
+      this.blockDocids[i] = docid;
+    }
+
+    for (int i = 0; i < count; i++)
+      this.blockTfs[i] = this.readVInt ();
+
+    this.blockLocationsOffset = this.offset;
+    this.blockLocationsDecoded = false;
+    this.block = b;
+  }
+
+  /**
+   *  Decode the locations of the current block, unless they are
+   *  already decoded.
+   */
+  private void decodeBlockLocations() {
+
+    if (this.blockLocationsDecoded)
+      return;
+
+    int count = Math.min (SKIP_INTERVAL, this.df - this.block * SKIP_INTERVAL);
+    int total = 0;
+
+    for (int i = 0; i < count; i++) {
+      this.blockLocationsStart[i] = total;
+      total += this.blockTfs[i];
+    }
+
+    this.blockLocationsStart[count] = total;
+
+    if (this.blockLocations.length < total)
+      this.blockLocations = new int[Math.max (total, 2 * this.blockLocations.length)];
+
+    this.offset = this.blockLocationsOffset;
+
+    for (int i = 0; i < count; i++) {
+      int location = 0;
+
+      for (int j = this.blockLocationsStart[i]; j < this.blockLocationsStart[i + 1]; j++) {
+        location += this.readVInt ();
+        this.blockLocations[j] = location;
+      }
+    }
+
+    this.blockLocationsDecoded = true;
+  }
+
+  /**
+   *  Read one VByte-encoded integer at the current offset.
+   *  @return The integer.
+   */
+  private int readVInt() {
+    byte b = this.data.get (this.offset++);
+    int value = b & 0x7F;
+
+    for (int shift = 7; (b & 0x80) != 0; shift += 7) {
+      b = this.data.get (this.offset++);
+      value |= (b & 0x7F) << shift;
+    }
+
+    return value;
+  }
+
+  /**
+   *  Advance from the n'th posting to the first posting whose docid is
+   *  at least the specified docid.  Blocks whose last docid is smaller
+   *  than the docid are skipped without being decoded.
+   *  @param n The index of the posting to start from.
+   *  @param docid The internal document id to advance to.
+   *  @return The index of the posting, or df if there is no such posting.
+   */
+  public int advanceTo(int n, int docid) {
+
+    if (n >= this.df)
+      return n;
+
+    int b = n / SKIP_INTERVAL;
+
+    if (this.blockLastDocids[b] < docid) {
+      b = gallop (this.blockLastDocids, b + 1, this.numBlocks, docid);
+
+      if (b >= this.numBlocks)
+        return this.df;
+
+      n = b * SKIP_INTERVAL;
+    }
+
+    this.decodeBlock (b);
+
+    int first = b * SKIP_INTERVAL;
+    int count = Math.min (SKIP_INTERVAL, this.df - first);
+
+    return first + gallop (this.blockDocids, n - first, count, docid);
+  }
+
+  /**
+   *  Find the block that advanceTo(n, docid) would stop in, without
+   *  decoding any blocks.
+   *  @param n The index of the posting to start from.
+   *  @param docid The internal document id to advance to.
+   *  @return The index of the block, or numBlocks if there is no such
+   *  posting.
+   */
+  public int getBlock(int n, int docid) {
+
+    if (n >= this.df)
+      return this.numBlocks;
+
+    int b = n / SKIP_INTERVAL;
+
+    if (this.blockLastDocids[b] < docid)
+      b = gallop (this.blockLastDocids, b + 1, this.numBlocks, docid);
+
+    return b;
+  }
+
+  /**
+   *  Get the last docid of a block.
+   *  @param b The index of the block.
+   *  @return The internal document id.
+   */
+  public int getBlockLastDocid(int b) {
+    return this.blockLastDocids[b];
+  }
+
+  /**
+   *  Get the n'th document id from the inverted list.
+   *  @param n The index of the requested document.
+   *  @return The internal document id.
+   */
+  public int getDocid(int n) {
+    this.decodeBlock (n / SKIP_INTERVAL);
+    return this.blockDocids[n % SKIP_INTERVAL];
+  }
+
+  /**
+   *  Get the term frequency in the n'th document of the inverted list.
+   *  @param n The index of the requested document term frequency.
+   *  @return The document's term frequency.
+   */
+  public int getTf(int n) {
+    this.decodeBlock (n / SKIP_INTERVAL);
+    return this.blockTfs[n % SKIP_INTERVAL];
+  }
+
+  /**
+   *  Get the array that stores the locations of the n'th document of
+   *  the inverted list.  The array is reused for the next block.
+   *  @param n The index of the requested document.
+   *  @return An array that contains the document's locations.
+   */
+  public int[] getPositions(int n) {
+    this.decodeBlock (n / SKIP_INTERVAL);
+    this.decodeBlockLocations ();
+    return this.blockLocations;
+  }
+
+  /**
+   *  Get the index of the first location of the n'th document in the
+   *  array returned by getPositions(n).
+   *  @param n The index of the requested document.
+   *  @return The index of the document's first location.
+   */
+  public int getPositionsStart(int n) {
+    this.decodeBlock (n / SKIP_INTERVAL);
+    this.decodeBlockLocations ();
+    return this.blockLocationsStart[n % SKIP_INTERVAL];
+  }
+
+  /**
+   *  Postings can't be appended to a compressed inverted list.
+   *  @return false
+   */
+  public boolean appendPosting (int docid, int[] locations, int start, int count) {
+    return false;
+  }
+
+  /**
+   *  Postings can't be appended to a compressed inverted list.
+   *  @return false
+   */
+  public boolean appendPostingTf (int docid, int tf) {
+    return false;
+  }
+
+  /**
+   *  Write the compressed inverted list.  The format is the df, ctf,
+   *  and number of blocks, then the last docid of each block, then the
+   *  offset of each block, then the largest tf of each block, then the
+   *  shortest field length of each block, then the compressed blocks.
+   *  The block maxima are computed if the list doesn't have them.
+   *  @param out The output to write to.
+   *  @return The number of bytes written.
+   *  @throws IOException Error writing the output.
+   */
+  public int write(DataOutput out) throws IOException {
+
+    if (! this.positionsStored)
+      throw new IllegalStateException ("Only lists that have locations can be written.");
+
+    this.computeBlockMaxima ();
+
+    out.writeInt (this.df);
+    out.writeInt (this.ctf);
+    out.writeInt (this.numBlocks);
+
+    for (int b = 0; b < this.numBlocks; b++)
+      out.writeInt (this.blockLastDocids[b]);
+
+    for (int b = 0; b <= this.numBlocks; b++)
+      out.writeInt (this.blockOffsets[b]);
+
+    for (int b = 0; b < this.numBlocks; b++)
+      out.writeInt (this.blockMaxTfs[b]);
+
+    for (int b = 0; b < this.numBlocks; b++)
+      out.writeInt (this.blockMinLengths[b]);
+
+    byte[] bytes = new byte[this.blockOffsets[this.numBlocks]];
+    ByteBuffer data = this.data.duplicate ();
+
+    data.position (0);
+    data.get (bytes);
+    out.write (bytes);
+
+    return 12 + 4 * (4 * this.numBlocks + 1) + bytes.length;
+  }
+
+  /**
+   *  Get the approximate number of bytes of memory that the inverted
+   *  list uses.  The compressed postings are included even if they are
+   *  shared with other lists.
+   *  @return The size of the inverted list in bytes.
+   */
+  public long getMemoryUsage() {
+    return OBJECT_OVERHEAD +
+      this.data.capacity () +
+      4L * (this.blockLastDocids.length + this.blockOffsets.length) +
+      ((this.blockMaxTfs == null) ? 0 : 8L * this.blockMaxTfs.length) +
+      4L * (this.blockDocids.length + this.blockTfs.length +
+            this.blockLocationsStart.length + this.blockLocations.length);
+  }
+
+  //  --------------- Nested classes --------------------------------
+
+  /**
+   *  A growable byte array that VByte-encodes integers.
+   */
+  protected static class ByteArray {
+
+    protected byte[] bytes;
+    protected int size = 0;
+
+    protected ByteArray(int capacity) {
+      this.bytes = new byte[Math.max (16, capacity)];
+    }
+
+    protected void writeVInt(int value) {
+
+      if (this.size + 5 > this.bytes.length)
+        this.bytes = Arrays.copyOf (this.bytes, 2 * this.bytes.length + 5);
+
+      while ((value & ~0x7F) != 0) {
+        this.bytes[this.size++] = (byte) ((value & 0x7F) | 0x80);
+        value >>>= 7;
+      }
+
+      this.bytes[this.size++] = (byte) value;
+    }
+  }
+}
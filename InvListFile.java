@@ -0,0 +1,354 @@
+/**
+ *  Copyright (c) 2015, Carnegie Mellon University.  All Rights Reserved.
+ */
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+
+import org.apache.lucene.index.*;
+import org.apache.lucene.util.*;
+
+/**
+ *  A file of inverted lists in this engine's own format, and the
+ *  interface used to read it.  The main method exports every inverted
+ *  list in a Lucene index to a file.  When a file is open, TERM
+ *  operators get their inverted lists from it instead of from Lucene.
+ *  <p>
+ *  Each inverted list is stored in the InvListCompressed format, which
+ *  includes the block maxima that dynamic pruning uses.  The lists are
+ *  followed by a lexicon, which is sorted by field and then by term,
+ *  and the last 8 bytes of the file are the offset of the lexicon.
+ *  The lexicon is read into memory when the file is opened, and the
+ *  inverted lists are mapped, so they are not copied onto the heap, and
+ *  they are shared with other processes via the operating system's page
+ *  cache.  The file is closed once it is mapped.
+ *  </p><p>
+ *  The file stores internal docids, so it is only valid for the index
+ *  that it was exported from.  Deleted documents are not exported.
+ *  </p><p>
+ *  Other kinds of precomputed inverted lists (e.g., InvListPhrases)
+ *  use the same format, with their own keys.  They open their files
+ *  as InvListFile objects, and write them with an InvListFile.Writer.
+ *  </p>
+ */
+public class InvListFile {
+
+  //  --------------- Constants and variables -----------------------
+
+  private static final int MAGIC = 0x51455649;	// "QEVI"
+  private static final int VERSION = 2;		// 2 added block maxima
+
+  private static final String USAGE =
+    "Usage:  java InvListFile indexPath outputPath\n";
+
+  /**
+   *  The open file that TERM operators use, or null if none is open.
+   */
+  private static InvListFile file = null;
+
+  /**
+   *  The mapped inverted lists.  A mapping can't be larger than 2GB, so
+   *  the lists are divided into segments.  segments[s] maps the part of
+   *  the file that starts at segmentStarts[s].
+   */
+  private ByteBuffer[] segments;
+  private long[] segmentStarts;
+
+  /**
+   *  The fields that have inverted lists in the file.
+   */
+  private Set<String> fields = new HashSet<String> ();
+
+  /**
+   *  The lexicon.  keys[i] is the field, a \0, and the key (e.g., the
+   *  term).  The list starts at offsets[i] and is lengths[i] bytes long.
+   */
+  private String[] keys;
+  private long[] offsets;
+  private int[] lengths;
+
+  //  --------------- Methods ---------------------------------------
+
+  /**
+   *  Open the file of inverted lists that TERM operators use.  The
+   *  Lucene index must already be open, so that the file can be checked
+   *  against it.
+   *  @param path The path of the file.
+   *  @throws IOException Error reading the file.
+   */
+  public static synchronized void initialize (String path) throws IOException {
+    file = new InvListFile (path);
+  }
+
+  /**
+   *  Open a file of inverted lists.  The Lucene index must already be
+   *  open, so that the file can be checked against it.
+   *  @param path The path of the file.
+   *  @throws IOException Error reading the file.
+   */
+  public InvListFile (String path) throws IOException {
+
+    FileChannel c = new RandomAccessFile (path, "r").getChannel ();
+    List<ByteBuffer> mapped = new ArrayList<ByteBuffer> ();
+    List<Long> mappedStarts = new ArrayList<Long> ();
+
+    //  The file is closed however reading it ends.
+
+    try {
+      DataInputStream in =
+        new DataInputStream (new BufferedInputStream (Channels.newInputStream (c)));
+
+      if ((in.readInt () != MAGIC) || (in.readInt () != VERSION))
+        throw new IllegalArgumentException (path + " is not an inverted list file.");
+
+      if (in.readInt () != Idx.INDEXREADER.maxDoc ())
+        throw new IllegalArgumentException (path + " was not exported from this index.");
+
+      //  Read the lexicon.
+
+      ByteBuffer tail = ByteBuffer.allocate (8);
+      c.read (tail, c.size () - 8);
+      c.position (tail.getLong (0));
+      in = new DataInputStream (new BufferedInputStream (Channels.newInputStream (c)));
+
+      int size = in.readInt ();
+
+      this.keys = new String[size];
+      this.offsets = new long[size];
+      this.lengths = new int[size];
+
+      for (int i = 0; i < size; i++) {
+        this.keys[i] = in.readUTF ();
+        this.offsets[i] = in.readLong ();
+        this.lengths[i] = in.readInt ();
+        this.fields.add (this.keys[i].substring (0, this.keys[i].indexOf ('\0')));
+      }
+
+      //  Map the inverted lists, which are contiguous, from the first
+      //  one to the lexicon.  The mappings stay valid after the file is
+      //  closed.
+
+      long[] starts = Arrays.copyOf (this.offsets, size + 1);
+      starts[size] = tail.getLong (0);
+      Arrays.sort (starts);
+
+      int first = 0;
+
+      for (int i = 1; i <= size; i++) {
+        if ((i == size) || (starts[i + 1] - starts[first] > Integer.MAX_VALUE)) {
+          mapped.add (c.map (FileChannel.MapMode.READ_ONLY,
+                             starts[first], starts[i] - starts[first]));
+          mappedStarts.add (starts[first]);
+          first = i;
+        }
+      }
+    } finally {
+      c.close ();
+    }
+
+    this.segments = mapped.toArray (new ByteBuffer[mapped.size ()]);
+    this.segmentStarts = new long[mappedStarts.size ()];
+
+    for (int i = 0; i < this.segmentStarts.length; i++)
+      this.segmentStarts[i] = mappedStarts.get (i);
+  }
+
+  /**
+   *  Indicates whether the file of inverted lists that TERM operators
+   *  use is open.
+   *  @return True if a file is open, otherwise false.
+   */
+  public static synchronized boolean isOpen () {
+    return (file != null);
+  }
+
+  /**
+   *  Get an inverted list from the open file.  Each call creates a new
+   *  list, so each caller has its own iteration state.
+   *  @param termString The processed (stemmed, lower-cased, etc) term string.
+   *  @param fieldString The field that the term occurs in.
+   *  @param positionsRequired Whether the inverted list must have positions.
+   *  @return The inverted list, which is empty if the term doesn't occur,
+   *  or null if the file can't provide it (the field wasn't exported,
+   *  or positions are required but the list doesn't have them).
+   *  @throws IOException Error reading the file.
+   */
+  public static InvList getInvList (String termString, String fieldString,
+                                    boolean positionsRequired)
+    throws IOException {
+
+    if (! file.fields.contains (fieldString))
+      return null;
+
+    InvList list = file.read (termString, fieldString);
+
+    if (list == null)
+      return new InvList (fieldString);
+
+    return (! positionsRequired || list.hasPositions ()) ? list : null;
+  }
+
+  /**
+   *  Indicates whether the file has an inverted list.
+   *  @param key The key of the inverted list (e.g., the term).
+   *  @param fieldString The field of the inverted list.
+   *  @return True if the file has the inverted list, otherwise false.
+   */
+  public boolean contains (String key, String fieldString) {
+    return Arrays.binarySearch (this.keys, fieldString + "\0" + key) >= 0;
+  }
+
+  /**
+   *  Read an inverted list from the file.  Each call creates a new
+   *  list, so each caller has its own iteration state.
+   *  @param key The key of the inverted list (e.g., the term).
+   *  @param fieldString The field of the inverted list.
+   *  @return The inverted list, or null if the file doesn't have it.
+   *  @throws IOException Error reading the file.
+   */
+  public InvList read (String key, String fieldString) throws IOException {
+
+    int i = Arrays.binarySearch (this.keys, fieldString + "\0" + key);
+
+    if (i < 0)
+      return null;
+
+    int s = Arrays.binarySearch (this.segmentStarts, this.offsets[i]);
+
+    if (s < 0)
+      s = -s - 2;		// The segment that contains the list
+
+    ByteBuffer buffer = this.segments[s].duplicate ();
+    int position = (int) (this.offsets[i] - this.segmentStarts[s]);
+
+    buffer.position (position);
+    buffer.limit (position + this.lengths[i]);
+
+    return new InvListCompressed (fieldString, buffer.slice ());
+  }
+
+  /**
+   *  Export every inverted list in the index to a file.
+   *  @param indexPath The path of the Lucene index.
+   *  @param path The path of the file to write.
+   *  @throws IOException Error accessing the index or writing the file.
+   */
+  public static void export (String indexPath, String path) throws IOException {
+
+    Idx.initialize (indexPath);
+
+    Writer out = new Writer (path);
+
+    //  Write the inverted lists of every field that stores positions.
+
+    Fields fields = MultiFields.getFields (Idx.INDEXREADER);
+
+    for (String field : fields) {
+
+      Terms terms = fields.terms (field);
+
+      if ((terms == null) || ! terms.hasPositions ())
+        continue;
+
+      TermsEnum ithTerm = terms.iterator (null);
+      BytesRef termBytes;
+
+      while ((termBytes = ithTerm.next ()) != null) {
+
+        String term = termBytes.utf8ToString ();
+        InvList list = new InvList (term, field);
+
+        if (list.df < 1)		// Only deleted documents
+          continue;
+
+        out.write (term, field, list);
+      }
+    }
+
+    int size = out.close ();
+
+    System.out.println ("Exported " + size + " inverted lists.");
+  }
+
+  /**
+   *  Export the inverted lists of a Lucene index.
+   *  @param args The index path and the output file path.
+   *  @throws IOException Error accessing the index or writing the file.
+   */
+  public static void main (String[] args) throws IOException {
+
+    if (args.length != 2) {
+      System.err.println (USAGE);
+      System.exit (1);
+    }
+
+    export (args[0], args[1]);
+  }
+
+  //  --------------- Nested classes --------------------------------
+
+  /**
+   *  Writes a file of inverted lists for the open Lucene index.  Lists
+   *  may be written in any order.
+   */
+  public static class Writer {
+
+    private DataOutputStream out;
+    private TreeMap<String, long[]> lexicon = new TreeMap<String, long[]> ();
+    private long offset = 0;
+
+    /**
+     *  Create a file of inverted lists.
+     *  @param path The path of the file to write.
+     *  @throws IOException Error writing the file.
+     */
+    public Writer (String path) throws IOException {
+      this.out = new DataOutputStream (
+        new BufferedOutputStream (new FileOutputStream (path)));
+
+      this.out.writeInt (MAGIC);
+      this.out.writeInt (VERSION);
+      this.out.writeInt (Idx.INDEXREADER.maxDoc ());
+      this.offset += 12;
+    }
+
+    /**
+     *  Write an inverted list, which must have locations.
+     *  @param key The key of the inverted list (e.g., the term).
+     *  @param fieldString The field of the inverted list.
+     *  @param list The inverted list.
+     *  @throws IOException Error writing the file.
+     */
+    public void write (String key, String fieldString, InvList list)
+      throws IOException {
+
+      int length = new InvListCompressed (list).write (this.out);
+
+      this.lexicon.put (fieldString + "\0" + key,
+                        new long[] { this.offset, length });
+      this.offset += length;
+    }
+
+    /**
+     *  Write the lexicon, and then its offset, and close the file.
+     *  @return The number of inverted lists in the file.
+     *  @throws IOException Error writing the file.
+     */
+    public int close () throws IOException {
+
+      this.out.writeInt (this.lexicon.size ());
+
+      for (Map.Entry<String, long[]> e : this.lexicon.entrySet ()) {
+        this.out.writeUTF (e.getKey ());
+        this.out.writeLong (e.getValue ()[0]);
+        this.out.writeInt ((int) e.getValue ()[1]);
+      }
+
+      this.out.writeLong (this.offset);
+      this.out.close ();
+
+      return this.lexicon.size ();
+    }
+  }
+}
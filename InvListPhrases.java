@@ -0,0 +1,310 @@
+/**
+ *  Copyright (c) 2015, Carnegie Mellon University.  All Rights Reserved.
+ */
+import java.io.*;
+import java.util.*;
+
+import org.apache.lucene.index.*;
+import org.apache.lucene.search.*;
+import org.apache.lucene.util.*;
+
+/**
+ *  A phrase index:  a file of precomputed #NEAR/1 inverted lists for
+ *  frequent pairs of adjacent terms.  When the file is open, #NEAR/1
+ *  operators whose arguments are two terms get their inverted lists
+ *  from it, if it has them, instead of intersecting the terms' lists.
+ *  Phrases of frequent terms are exactly the ones whose intersections
+ *  are expensive.
+ *  <p>
+ *  The main method builds the file in two passes.  The first pass
+ *  counts the documents that contain each pair of adjacent terms.
+ *  Only terms that occur in at least minDf documents can start or end
+ *  a frequent pair, so the locations of the most frequent such terms
+ *  are read, a batch of documents at a time, and sorted into document
+ *  order.  The second pass evaluates #NEAR/1 for the most frequent
+ *  pairs, so the stored lists are exactly what evaluation would
+ *  produce.
+ *  </p><p>
+ *  The file has the InvListFile format.  Its keys are the two terms,
+ *  separated by a space.  Like InvListFile, it is only valid for the
+ *  index that it was built from.
+ *  </p>
+ */
+public class InvListPhrases {
+
+  //  --------------- Constants and variables -----------------------
+
+  private static final String USAGE =
+    "Usage:  java InvListPhrases indexPath outputPath [minDf [maxPhrases]]\n";
+
+  /**
+   *  The defaults for the minimum df of a phrase, and the maximum
+   *  number of phrases in a file.
+   */
+  private static final int DEFAULT_MIN_DF = 100;
+  private static final int DEFAULT_MAX_PHRASES = 100000;
+
+  /**
+   *  The maximum number of terms per field whose locations are read to
+   *  find phrases.  Term numbers must fit in 16 bits.
+   */
+  private static final int MAX_TERMS = 4096;
+
+  /**
+   *  The number of documents whose locations are sorted at once.
+   *  Document offsets must fit in 16 bits.
+   */
+  private static final int BATCH_SIZE = 4096;
+
+  /**
+   *  The open phrase index, or null if none is open.
+   */
+  private static InvListFile file = null;
+
+  //  --------------- Methods ---------------------------------------
+
+  /**
+   *  Open a phrase index.  The Lucene index must already be open.
+   *  @param path The path of the file.
+   *  @throws IOException Error reading the file.
+   */
+  public static synchronized void initialize (String path) throws IOException {
+    file = new InvListFile (path);
+  }
+
+  /**
+   *  Indicates whether a phrase index is open.
+   *  @return True if a phrase index is open, otherwise false.
+   */
+  public static synchronized boolean isOpen () {
+    return (file != null);
+  }
+
+  /**
+   *  Indicates whether the open phrase index has a phrase.
+   *  @param term1 The first processed term string.
+   *  @param term2 The second processed term string.
+   *  @param fieldString The field that the terms occur in.
+   *  @return True if the phrase index has the phrase, otherwise false.
+   */
+  public static boolean contains (String term1, String term2, String fieldString) {
+    return file.contains (term1 + " " + term2, fieldString);
+  }
+
+  /**
+   *  Get the #NEAR/1 inverted list of a phrase from the open phrase
+   *  index.
+   *  @param term1 The first processed term string.
+   *  @param term2 The second processed term string.
+   *  @param fieldString The field that the terms occur in.
+   *  @return The inverted list, or null if the phrase index doesn't
+   *  have the phrase.
+   *  @throws IOException Error reading the file.
+   */
+  public static InvList getInvList (String term1, String term2, String fieldString)
+    throws IOException {
+    return file.read (term1 + " " + term2, fieldString);
+  }
+
+  /**
+   *  Build a phrase index for the frequent phrases of every field that
+   *  stores positions.
+   *  @param indexPath The path of the Lucene index.
+   *  @param path The path of the file to write.
+   *  @param minDf The minimum number of documents a phrase occurs in.
+   *  @param maxPhrases The maximum number of phrases in the file.
+   *  @throws IOException Error accessing the index or writing the file.
+   */
+  public static void build (String indexPath, String path, int minDf,
+                            int maxPhrases) throws IOException {
+
+    Idx.initialize (indexPath);
+
+    //  Pass 1:  Count the documents that contain each phrase.  Each
+    //  phrase is {df, field, term1, term2}.
+
+    List<Object[]> phrases = new ArrayList<Object[]> ();
+    Fields fields = MultiFields.getFields (Idx.INDEXREADER);
+
+    for (String field : fields) {
+
+      Terms terms = fields.terms (field);
+
+      if ((terms == null) || ! terms.hasPositions ())
+        continue;
+
+      String[] vocabulary = getFrequentTerms (terms, minDf);
+      Map<Long, int[]> counts = countPhrases (field, vocabulary);
+
+      for (Map.Entry<Long, int[]> e : counts.entrySet ()) {
+        int df = e.getValue ()[0];
+
+        if (df >= minDf) {
+          long pair = e.getKey ();
+          phrases.add (new Object[] { df, field,
+                                      vocabulary[(int) (pair >>> 16)],
+                                      vocabulary[(int) (pair & 0xFFFF)] });
+        }
+      }
+    }
+
+    Collections.sort (phrases, new Comparator<Object[]> () {
+        public int compare (Object[] a, Object[] b) {
+          return ((Integer) b[0]).compareTo ((Integer) a[0]);
+        }
+      });
+
+    //  Pass 2:  Evaluate the most frequent phrases.
+
+    InvListFile.Writer out = new InvListFile.Writer (path);
+
+    for (int i = 0; (i < phrases.size ()) && (i < maxPhrases); i++) {
+
+      String field = (String) phrases.get (i)[1];
+      String term1 = (String) phrases.get (i)[2];
+      String term2 = (String) phrases.get (i)[3];
+
+      QryIopNear near = new QryIopNear (1);
+      near.appendArg (new QryIopTerm (term1, field));
+      near.appendArg (new QryIopTerm (term2, field));
+      near.initialize (null);
+
+      if (near.getDf () > 0)		// Only deleted documents
+        out.write (term1 + " " + term2, field, near.invertedList);
+    }
+
+    int size = out.close ();
+
+    System.out.println ("Built " + size + " phrases.");
+  }
+
+  /**
+   *  Find the terms that occur in at least minDf documents.  If there
+   *  are too many, the most frequent ones are used.
+   *  @param terms The terms of a field.
+   *  @param minDf The minimum df.
+   *  @return The terms.
+   *  @throws IOException Error accessing the Lucene index.
+   */
+  private static String[] getFrequentTerms (Terms terms, int minDf)
+    throws IOException {
+
+    FrequentTerms frequent = new FrequentTerms (MAX_TERMS);
+    TermsEnum ithTerm = terms.iterator (null);
+    BytesRef termBytes;
+
+    while ((termBytes = ithTerm.next ()) != null)
+      if (ithTerm.docFreq () >= minDf)
+        frequent.add (termBytes.utf8ToString (), ithTerm.docFreq ());
+
+    return frequent.getTerms ();
+  }
+
+  /**
+   *  Count the documents that contain each pair of adjacent terms.
+   *  Each location of each term is packed into a long as the document
+   *  offset in the batch, the location, and the term number, so that
+   *  sorting the longs puts the batch's locations in document order.
+   *  @param field The field.
+   *  @param vocabulary The terms whose phrases are counted.
+   *  @return A map from a pair of term numbers (term1 &lt;&lt; 16 | term2)
+   *  to {df, the last docid counted}.
+   *  @throws IOException Error accessing the Lucene index.
+   */
+  private static Map<Long, int[]> countPhrases (String field, String[] vocabulary)
+    throws IOException {
+
+    Map<Long, int[]> counts = new HashMap<Long, int[]> ();
+    long[] locations = new long[1024];
+
+    for (AtomicReaderContext leaf : Idx.LEAVES) {
+
+      DocsAndPositionsEnum[] postings = new DocsAndPositionsEnum[vocabulary.length];
+
+      for (int t = 0; t < vocabulary.length; t++) {
+        postings[t] = (DocsAndPositionsEnum)
+          Idx.getPostings (leaf, new Term (field, vocabulary[t]), true);
+
+        if ((postings[t] != null) &&
+            (postings[t].nextDoc () == DocIdSetIterator.NO_MORE_DOCS))
+          postings[t] = null;
+      }
+
+      int maxDoc = leaf.reader ().maxDoc ();
+
+      for (int batch = 0; batch < maxDoc; batch += BATCH_SIZE) {
+
+        //  Gather the locations of every term in this batch.
+
+        int n = 0;
+
+        for (int t = 0; t < vocabulary.length; t++) {
+
+          DocsAndPositionsEnum p = postings[t];
+
+          while ((p != null) && (p.docID () < batch + BATCH_SIZE)) {
+
+            int tf = p.freq ();
+
+            if (locations.length < n + tf)
+              locations = Arrays.copyOf (locations, Math.max (n + tf, 2 * locations.length));
+
+            for (int j = 0; j < tf; j++)
+              locations[n++] = ((long) (p.docID () - batch) << 47) |
+                ((long) p.nextPosition () << 16) | t;
+
+            if (p.nextDoc () == DocIdSetIterator.NO_MORE_DOCS)
+              p = postings[t] = null;
+          }
+        }
+
+        Arrays.sort (locations, 0, n);
+
+        //  Count adjacent locations in the same document, once per
+        //  document.
+
+        for (int i = 1; i < n; i++) {
+
+          long prev = locations[i - 1];
+          long curr = locations[i];
+
+          if (((prev >>> 47) != (curr >>> 47)) ||
+              (((curr >>> 16) & 0x7FFFFFFFL) - ((prev >>> 16) & 0x7FFFFFFFL) != 1))
+            continue;
+
+          int docid = leaf.docBase + batch + (int) (curr >>> 47);
+          Long pair = ((prev & 0xFFFF) << 16) | (curr & 0xFFFF);
+          int[] count = counts.get (pair);
+
+          if (count == null)
+            counts.put (pair, new int[] { 1, docid });
+          else if (count[1] != docid) {
+            count[0] ++;
+            count[1] = docid;
+          }
+        }
+      }
+    }
+
+    return counts;
+  }
+
+  /**
+   *  Build a phrase index.
+   *  @param args The index path, the output file path, and optionally
+   *  the minimum df of a phrase and the maximum number of phrases.
+   *  @throws IOException Error accessing the index or writing the file.
+   */
+  public static void main (String[] args) throws IOException {
+
+    if ((args.length < 2) || (args.length > 4)) {
+      System.err.println (USAGE);
+      System.exit (1);
+    }
+
+    int minDf = (args.length > 2) ? Integer.parseInt (args[2]) : DEFAULT_MIN_DF;
+    int maxPhrases = (args.length > 3) ? Integer.parseInt (args[3]) : DEFAULT_MAX_PHRASES;
+
+    build (args[0], args[1], minDf, maxPhrases);
+  }
+}
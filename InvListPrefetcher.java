@@ -0,0 +1,175 @@
+/**
+ *  Copyright (c) 2015, Carnegie Mellon University.  All Rights Reserved.
+ */
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ *  Reads the inverted lists of a query's terms in parallel, before the
+ *  query is initialized.  Otherwise Qry.initialize reads them one at a
+ *  time, so a query with many terms (e.g., an expanded query) waits for
+ *  many index reads in a row.
+ *  <p>
+ *  The lists are read by a fixed number of threads that are shared by
+ *  all queries.  prefetch returns after every list has been read, so
+ *  evaluation starts with all of the lists ready.  Prefetching is
+ *  disabled until the number of threads is set.
+ *  </p>
+ */
+public class InvListPrefetcher {
+
+  //  --------------- Constants and variables -----------------------
+
+  /**
+   *  The threads that read inverted lists, or null if prefetching is
+   *  disabled.
+   */
+  private static ExecutorService executor = null;
+
+  /**
+   *  Whether the time that each query's prefetch saves is reported on
+   *  stderr.
+   */
+  private static boolean reportTimes = false;
+
+  //  --------------- Methods ---------------------------------------
+
+  /**
+   *  Set the number of threads that read inverted lists.  0 disables
+   *  prefetching.
+   *  @param threads The number of threads.
+   */
+  public static synchronized void setThreads (int threads) {
+
+    if (threads < 0)
+      throw new IllegalArgumentException ("The number of prefetch threads must be >= 0.");
+
+    if (executor != null)
+      executor.shutdown ();
+
+    if (threads == 0) {
+      executor = null;
+      return;
+    }
+
+    //  Daemon threads, so that an idle pool doesn't keep the program
+    //  running.
+
+    executor = Executors.newFixedThreadPool (threads, new ThreadFactory () {
+        public Thread newThread (Runnable r) {
+          Thread t = new Thread (r, "InvListPrefetcher");
+          t.setDaemon (true);
+          return t;
+        }
+      });
+  }
+
+  /**
+   *  Set whether the time that each query's prefetch saves is reported
+   *  on stderr, away from the query results.
+   *  @param report True to report the times.
+   */
+  public static synchronized void setReportTimes (boolean report) {
+    reportTimes = report;
+  }
+
+  /**
+   *  Indicates whether prefetching is enabled.
+   *  @return True if prefetching is enabled, otherwise false.
+   */
+  public static synchronized boolean isEnabled () {
+    return (executor != null);
+  }
+
+  /**
+   *  Read the inverted lists of every TERM operator in a query, in
+   *  parallel, and optionally report how much time that saved.
+   *  @param q The query, which has not been initialized yet.
+   *  @param r The retrieval model that the query will be initialized with.
+   *  @param qid The query id, which is used in the report.
+   *  @throws IOException Error accessing the Lucene index.
+   */
+  public static void prefetch (Qry q, final RetrievalModel r, String qid)
+    throws IOException {
+
+    List<QryIopTerm> terms = new ArrayList<QryIopTerm> ();
+
+    collectTerms (q, terms);
+
+    if (terms.size () < 2)
+      return;
+
+    long start = System.nanoTime ();
+    List<Future<Long>> results = new ArrayList<Future<Long>> ();
+
+    for (final QryIopTerm term : terms) {
+      results.add (executor.submit (new Callable<Long> () {
+          public Long call () throws IOException {
+            long t = System.nanoTime ();
+            term.prefetch (r);
+            return System.nanoTime () - t;
+          }
+        }));
+    }
+
+    //  Wait for every list.  The sum of the read times is how long the
+    //  lists would have taken to read one at a time.
+
+    long serial = 0;
+
+    try {
+      for (Future<Long> result : results)
+        serial += result.get ();
+    } catch (InterruptedException ex) {
+      Thread.currentThread ().interrupt ();
+      throw new IllegalStateException ("Interrupted while prefetching.", ex);
+    } catch (ExecutionException ex) {
+      if (ex.getCause () instanceof IOException)
+        throw (IOException) ex.getCause ();
+      throw new IllegalStateException ("Error prefetching an inverted list.", ex.getCause ());
+    }
+
+    long elapsed = System.nanoTime () - start;
+
+    if (reportTimes)
+      System.err.printf ("%s: prefetched %d inverted lists in %.1f ms, saved %.1f ms%n",
+                         qid, terms.size (), elapsed / 1e6, (serial - elapsed) / 1e6);
+  }
+
+  /**
+   *  Find the TERM operators in a query.  As each query operator is
+   *  visited, its arguments' positionsRequired flags are set the same
+   *  way that Qry.initialize sets them, so that each list is read with
+   *  or without locations as its consumer needs.  Query operators
+   *  whose results are cached or precomputed don't read their
+   *  arguments' lists, so they are skipped.
+   *  @param q A query operator.
+   *  @param terms The TERM operators that have been found.
+   */
+  private static void collectTerms (Qry q, List<QryIopTerm> terms) {
+
+    if ((q instanceof QryIop) && ((QryIop) q).hasPrecomputedResult ())
+      return;
+
+    if ((q instanceof QryIop) && ((QryIop) q).isResultCacheable () &&
+        InvListCache.isEnabled () &&
+        InvListCache.containsResult (((QryIop) q).getCanonicalForm (),
+                                     ((QryIop) q).positionsRequired))
+      return;
+
+    if (q instanceof QryIopTerm)
+      terms.add ((QryIopTerm) q);
+
+    for (Qry q_i : q.args) {
+      if (q_i instanceof QryIop) {
+        if (q instanceof QrySopScore)
+          ((QryIop) q_i).positionsRequired = false;
+        else if (q instanceof QryIop)
+          ((QryIop) q_i).positionsRequired = ((QryIop) q).argPositionsRequired ();
+      }
+
+      collectTerms (q_i, terms);
+    }
+  }
+}
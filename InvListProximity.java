@@ -0,0 +1,189 @@
+/**
+ *  Copyright (c) 2015, Carnegie Mellon University.  All Rights Reserved.
+ */
+
+import org.apache.lucene.search.*;
+
+/**
+ *  The inverted list of a streaming proximity operator.  Postings are
+ *  computed by the operator as the list is iterated, instead of being
+ *  computed when the operator is initialized.
+ *  <p>
+ *  Only the current posting is available.  Postings must be accessed
+ *  in increasing index order, which is how the QryIop docIterator
+ *  uses them.  advanceTo advances the operator's arguments directly,
+ *  so documents that are skipped are never matched.  The df and ctf
+ *  are provided by the operator, so they are available before
+ *  iteration begins.
+ *  </p>
+ */
+public class InvListProximity extends InvList {
+
+  //  --------------- Constants and variables -----------------------
+
+  /**
+   *  The proximity operator that computes the postings.
+   */
+  private QryIopProximity op;
+
+  /**
+   *  The index and docid of the current posting.
+   */
+  private int index = -1;
+  private int docid = -1;
+
+  //  --------------- Methods ---------------------------------------
+
+  /**
+   *  Get the inverted list of a streaming proximity operator.
+   *  @param op The operator, whose arguments have been initialized.
+   *  @param df The number of documents that the operator matches.
+   *  @param ctf The number of matches in all documents.
+   */
+  public InvListProximity(QryIopProximity op, int df, int ctf) {
+    super (op.getField ());
+    this.allocate (0, 0);
+    this.op = op;
+    this.df = df;
+    this.ctf = ctf;
+  }
+
+  /**
+   *  Compute postings until the n'th posting is the current posting.
+   *  @param n The index of a posting.
+   */
+  private void moveTo(int n) {
+
+    while (this.index < n) {
+      if (n >= this.df) {
+        this.docid = DocIdSetIterator.NO_MORE_DOCS;
+        this.index = n;
+      } else {
+        this.setDocid (this.op.nextMatchDocument (Qry.INVALID_DOCID));
+        this.index++;
+      }
+    }
+  }
+
+  /**
+   *  Set the current docid from a docid that the operator returned.
+   *  @param d A docid, or Qry.INVALID_DOCID.
+   */
+  private void setDocid(int d) {
+    this.docid = (d == Qry.INVALID_DOCID) ? DocIdSetIterator.NO_MORE_DOCS : d;
+  }
+
+  /**
+   *  Advance from the n'th posting to the first posting whose docid is
+   *  at least the specified docid.  Postings that are skipped don't
+   *  count, so the index of the result may be just n+1.
+   *  @param n The index of the posting to start from.
+   *  @param docid The internal document id to advance to.
+   *  @return The index of the posting.
+   */
+  public int advanceTo(int n, int docid) {
+
+    this.moveTo (n);
+
+    if ((this.docid < docid) && (this.docid != DocIdSetIterator.NO_MORE_DOCS)) {
+      this.setDocid (this.op.nextMatchDocument (docid));
+      this.index++;
+    }
+
+    return this.index;
+  }
+
+  /**
+   *  Indicates whether the inverted list has an n'th posting.
+   *  @param n The index of a posting.
+   *  @return True if the posting exists, otherwise false.
+   */
+  public boolean hasPosting(int n) {
+    if (n >= this.df)
+      return false;
+
+    this.moveTo (n);
+    return (this.docid != DocIdSetIterator.NO_MORE_DOCS);
+  }
+
+  /**
+   *  Get the n'th document id from the inverted list.
+   *  @param n The index of the requested document.
+   *  @return The internal document id.
+   */
+  public int getDocid(int n) {
+    this.moveTo (n);
+    return this.docid;
+  }
+
+  /**
+   *  Get the term frequency in the n'th document of the inverted list.
+   *  @param n The index of the requested document term frequency.
+   *  @return The document's term frequency.
+   */
+  public int getTf(int n) {
+    this.moveTo (n);
+    return this.op.numMatches;
+  }
+
+  /**
+   *  Get the array that stores the locations of the n'th document of
+   *  the inverted list.  The array is reused for the next posting.
+   *  @param n The index of the requested document.
+   *  @return An array that contains the document's locations.
+   */
+  public int[] getPositions(int n) {
+    this.moveTo (n);
+    return this.op.matches;
+  }
+
+  /**
+   *  Get the index of the first location of the n'th document in the
+   *  array returned by getPositions(n).
+   *  @param n The index of the requested document.
+   *  @return The index of the document's first location.
+   */
+  public int getPositionsStart(int n) {
+    return 0;
+  }
+
+  /**
+   *  Indicates whether the inverted list can only be iterated once.
+   *  @return true
+   */
+  public boolean isSequential() {
+    return true;
+  }
+
+  /**
+   *  Postings can't be appended to a streaming inverted list.
+   *  @return false
+   */
+  public boolean appendPosting (int docid, int[] locations, int start, int count) {
+    return false;
+  }
+
+  /**
+   *  Postings can't be appended to a streaming inverted list.
+   *  @return false
+   */
+  public boolean appendPostingTf (int docid, int tf) {
+    return false;
+  }
+
+  /**
+   *  A streaming inverted list can't be shared, because its operator
+   *  can only be iterated once.
+   *  @throws IllegalStateException Always.
+   */
+  public InvList duplicate() {
+    throw new IllegalStateException ("A streaming inverted list can't be duplicated.");
+  }
+
+  /**
+   *  A streaming inverted list can't be printed without consuming it.
+   */
+  public void print() {
+    System.out.println("df:  " + this.df + ", ctf: " + this.ctf + " (streaming)");
+  }
+}
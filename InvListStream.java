@@ -0,0 +1,353 @@
+/**
+ *  Copyright (c) 2015, Carnegie Mellon University.  All Rights Reserved.
+ */
+
+import java.io.*;
+
+import org.apache.lucene.index.*;
+import org.apache.lucene.util.*;
+import org.apache.lucene.search.*;
+
+/**
+ *  An inverted list that is read from the Lucene index as it is
+ *  iterated, instead of being copied into memory when it is created.
+ *  Each segment's inverted list is read in turn, and its docids are
+ *  rebased by the segment's docBase.
+ *  <p>
+ *  Only the current posting is available.  Postings must be accessed
+ *  in increasing index order, which is how the QryIop docIterator
+ *  uses them.  advanceTo uses Lucene's native advance, so postings
+ *  that are skipped are never decoded, and locations are only read
+ *  for postings whose locations are requested.  The df and ctf are
+ *  available before iteration begins.  They come from the term
+ *  dictionary if the index has no deleted documents.  Otherwise the
+ *  dictionary's counts include deleted documents, so the live postings
+ *  are counted, as InvList does, so that scores are the same whether
+ *  or not inverted lists are streamed.
+ *  </p>
+ */
+public class InvListStream extends InvList {
+
+  //  --------------- Constants and variables -----------------------
+
+  /**
+   *  The term, and the segment whose inverted list is read now.
+   */
+  private Term term;
+  private int leaf = -1;
+  private int docBase = 0;
+
+  /**
+   *  Lucene's inverted list for the current segment, or null if the
+   *  term doesn't occur in the segment.
+   */
+  private DocsEnum iList = null;
+
+  /**
+   *  The index and docid of the posting that iList points to now.
+   */
+  private int index = -1;
+  private int docid = -1;
+
+  /**
+   *  The locations of the current posting, if they have been read.
+   */
+  private int[] locations = new int[16];
+  private boolean locationsRead = false;
+
+  //  --------------- Methods ---------------------------------------
+
+  /**
+   *  Get a streaming inverted list from the index.
+   *  @param termString The processed (stemmed, lower-cased, etc) term string.
+   *  @param fieldString The field that the term occurs in.
+   *  @throws IOException Error accessing the Lucene index.
+   */
+  public InvListStream(String termString, String fieldString) throws IOException {
+    this (termString, fieldString, true);
+  }
+
+  /**
+   *  Get a streaming inverted list from the index, with or without
+   *  locations.
+   *  @param termString The processed (stemmed, lower-cased, etc) term string.
+   *  @param fieldString The field that the term occurs in.
+   *  @param positions Whether the locations of each posting are needed.
+   *  @throws IOException Error accessing the Lucene index.
+   */
+  public InvListStream(String termString, String fieldString, boolean positions)
+    throws IOException {
+
+    super (fieldString);
+    this.allocate (0, 0);
+    this.positionsStored = positions;
+
+    this.term = new Term(fieldString, new BytesRef(termString));
+    this.df = Idx.INDEXREADER.docFreq(this.term);
+
+    if (this.df < 1)
+      return;
+
+    //  The ctf is -1 if the index doesn't store it.
+
+    long ctf = Idx.INDEXREADER.totalTermFreq(this.term);
+
+    if (Idx.INDEXREADER.hasDeletions() || (ctf < 0))
+      this.countPostings();
+    else
+      this.ctf = (int) ctf;
+  }
+
+  /**
+   *  Set the df and ctf by counting the live postings of every segment.
+   *  Locations aren't read.
+   *  @throws IOException Error accessing the Lucene index.
+   */
+  private void countPostings() throws IOException {
+
+    this.df = 0;
+    this.ctf = 0;
+
+    for (AtomicReaderContext context : Idx.LEAVES) {
+      DocsEnum iList = Idx.getPostings(context, this.term, false);
+
+      if (iList == null)
+        continue;
+
+      while (iList.nextDoc() != DocIdSetIterator.NO_MORE_DOCS) {
+        this.df++;
+        this.ctf += iList.freq();
+      }
+    }
+  }
+
+  /**
+   *  Start reading the inverted list of the i'th segment.
+   *  @param i The index of a segment, or the number of segments if
+   *  there are no more segments.
+   *  @throws IOException Error accessing the Lucene index.
+   */
+  private void openLeaf(int i) throws IOException {
+
+    this.leaf = i;
+
+    if (i < Idx.LEAVES.size()) {
+      AtomicReaderContext context = Idx.LEAVES.get(i);
+      this.docBase = context.docBase;
+      this.iList = Idx.getPostings(context, this.term, this.positionsStored);
+    } else {
+      this.iList = null;
+    }
+  }
+
+  /**
+   *  Get the next docid, moving on to later segments as each segment's
+   *  inverted list is exhausted.
+   *  @return The docid, or NO_MORE_DOCS.
+   *  @throws IOException Error accessing the Lucene index.
+   */
+  private int nextDoc() throws IOException {
+
+    while (this.leaf < Idx.LEAVES.size()) {
+      if (this.iList != null) {
+        int d = this.iList.nextDoc();
+
+        if (d != DocIdSetIterator.NO_MORE_DOCS)
+          return this.docBase + d;
+      }
+
+      this.openLeaf(this.leaf + 1);
+    }
+
+    return DocIdSetIterator.NO_MORE_DOCS;
+  }
+
+  /**
+   *  Get the first docid that is at least the target.  Segments before
+   *  the target's segment are skipped without being read.
+   *  @param target The internal document id to advance to.
+   *  @return The docid, or NO_MORE_DOCS.
+   *  @throws IOException Error accessing the Lucene index.
+   */
+  private int advance(int target) throws IOException {
+
+    int i = ReaderUtil.subIndex(target, Idx.LEAVES);
+
+    if (i > this.leaf)
+      this.openLeaf(i);
+
+    if (this.iList != null) {
+      int d = this.iList.advance(target - this.docBase);
+
+      if (d != DocIdSetIterator.NO_MORE_DOCS)
+        return this.docBase + d;
+    }
+
+    this.openLeaf(this.leaf + 1);
+    return this.nextDoc();
+  }
+
+  /**
+   *  Advance Lucene's inverted list to the n'th posting.
+   *  @param n The index of a posting.
+   */
+  private void moveTo(int n) {
+
+    try {
+      while (this.index < n) {
+        if (n >= this.df) {
+          this.docid = DocIdSetIterator.NO_MORE_DOCS;
+          this.index = n;
+        } else {
+          this.docid = this.nextDoc();
+          this.index++;
+        }
+        this.locationsRead = false;
+      }
+    } catch (IOException ex) {
+      throw new IllegalStateException ("Error reading an inverted list.", ex);
+    }
+  }
+
+  /**
+   *  Advance from the n'th posting to the first posting whose docid is
+   *  at least the specified docid.  Postings that are skipped don't
+   *  count, so the index of the result may be just n+1.
+   *  @param n The index of the posting to start from.
+   *  @param docid The internal document id to advance to.
+   *  @return The index of the posting.
+   */
+  public int advanceTo(int n, int docid) {
+
+    this.moveTo (n);
+
+    if ((this.docid < docid) && (this.docid != DocIdSetIterator.NO_MORE_DOCS)) {
+      try {
+        this.docid = this.advance (docid);
+        this.index++;
+        this.locationsRead = false;
+      } catch (IOException ex) {
+        throw new IllegalStateException ("Error reading an inverted list.", ex);
+      }
+    }
+
+    return this.index;
+  }
+
+  /**
+   *  Indicates whether the inverted list has an n'th posting.
+   *  @param n The index of a posting.
+   *  @return True if the posting exists, otherwise false.
+   */
+  public boolean hasPosting(int n) {
+    if (n >= this.df)
+      return false;
+
+    this.moveTo (n);
+    return (this.docid != DocIdSetIterator.NO_MORE_DOCS);
+  }
+
+  /**
+   *  Get the n'th document id from the inverted list.
+   *  @param n The index of the requested document.
+   *  @return The internal document id.
+   */
+  public int getDocid(int n) {
+    this.moveTo (n);
+    return this.docid;
+  }
+
+  /**
+   *  Get the term frequency in the n'th document of the inverted list.
+   *  @param n The index of the requested document term frequency.
+   *  @return The document's term frequency.
+   */
+  public int getTf(int n) {
+    this.moveTo (n);
+    try {
+      return this.iList.freq();
+    } catch (IOException ex) {
+      throw new IllegalStateException ("Error reading an inverted list.", ex);
+    }
+  }
+
+  /**
+   *  Get the array that stores the locations of the n'th document of
+   *  the inverted list.  The array is reused for the next posting.
+   *  @param n The index of the requested document.
+   *  @return An array that contains the document's locations.
+   */
+  public int[] getPositions(int n) {
+
+    this.moveTo (n);
+
+    if (! this.locationsRead) {
+      try {
+        int tf = this.iList.freq();
+
+        if (this.locations.length < tf)
+          this.locations = new int[Math.max (tf, 2 * this.locations.length)];
+
+        DocsAndPositionsEnum pList = (DocsAndPositionsEnum) this.iList;
+
+        for (int j = 0; j < tf; j++)
+          this.locations[j] = pList.nextPosition();
+      } catch (IOException ex) {
+        throw new IllegalStateException ("Error reading an inverted list.", ex);
+      }
+      this.locationsRead = true;
+    }
+
+    return this.locations;
+  }
+
+  /**
+   *  Get the index of the first location of the n'th document in the
+   *  array returned by getPositions(n).
+   *  @param n The index of the requested document.
+   *  @return The index of the document's first location.
+   */
+  public int getPositionsStart(int n) {
+    return 0;
+  }
+
+  /**
+   *  Indicates whether the inverted list can only be iterated once.
+   *  @return true
+   */
+  public boolean isSequential() {
+    return true;
+  }
+
+  /**
+   *  Postings can't be appended to a streaming inverted list.
+   *  @return false
+   */
+  public boolean appendPosting (int docid, int[] locations, int start, int count) {
+    return false;
+  }
+
+  /**
+   *  Postings can't be appended to a streaming inverted list.
+   *  @return false
+   */
+  public boolean appendPostingTf (int docid, int tf) {
+    return false;
+  }
+
+  /**
+   *  A streaming inverted list can't be shared, because Lucene's
+   *  inverted list can only be iterated once.
+   *  @throws IllegalStateException Always.
+   */
+  public InvList duplicate() {
+    throw new IllegalStateException ("A streaming inverted list can't be duplicated.");
+  }
+
+  /**
+   *  A streaming inverted list can't be printed without consuming it.
+   */
+  public void print() {
+    System.out.println("df:  " + this.df + ", ctf: " + this.ctf + " (streaming)");
+  }
+}
@@ -0,0 +1,142 @@
+/**
+ *  Copyright (c) 2015, Carnegie Mellon University.  All Rights Reserved.
+ */
+import java.util.*;
+
+/**
+ *  Word operations on bitmaps of locations in one document, for
+ *  proximity operators.  Bit l of a bitmap is set if location l is
+ *  present.  A bitmap is a long[] that may be longer than the number
+ *  of words in use, so that it can be reused for every document.
+ */
+public class LocationBitmap {
+
+  //  --------------- Methods ---------------------------------------
+
+  /**
+   *  Get the number of words needed for locations up to maxLocation.
+   *  @param maxLocation The largest location.
+   *  @return The number of words.
+   */
+  public static int words (int maxLocation) {
+    return (maxLocation >>> 6) + 1;
+  }
+
+  /**
+   *  Set a bitmap to a run of locations.
+   *  @param bitmap The bitmap, or null.
+   *  @param words The number of words in use.
+   *  @param locations The locations, in increasing order.
+   *  @param start The index of the first location.
+   *  @param end The index just past the last location.
+   *  @return The bitmap, which is a new array if the old one was too short.
+   */
+  public static long[] set (long[] bitmap, int words, int[] locations,
+                            int start, int end) {
+
+    if ((bitmap == null) || (bitmap.length < words))
+      bitmap = new long[Math.max (words, (bitmap == null) ? 16 : 2 * bitmap.length)];
+    else
+      Arrays.fill (bitmap, 0, words, 0L);
+
+    for (int i = start; i < end; i++)
+      bitmap[locations[i] >>> 6] |= 1L << locations[i];
+
+    return bitmap;
+  }
+
+  /**
+   *  Shift a bitmap toward higher locations, so location l becomes
+   *  location l+shift.  Locations past the last word are dropped.
+   *  @param src The bitmap to shift.
+   *  @param dst Receives the result.  It may be src.
+   *  @param words The number of words in use.
+   *  @param shift The distance to shift.
+   */
+  public static void shift (long[] src, long[] dst, int words, int shift) {
+
+    int wordShift = shift >>> 6;
+    int bitShift = shift & 63;
+
+    for (int w = words - 1; w >= 0; w--) {
+      int from = w - wordShift;
+      long word = 0;
+
+      if (from >= 0) {
+        word = src[from] << bitShift;
+
+        if ((bitShift != 0) && (from > 0))
+          word |= src[from - 1] >>> (64 - bitShift);
+      }
+
+      dst[w] = word;
+    }
+  }
+
+  /**
+   *  Extend each location in a bitmap to the next n locations, so
+   *  location l is present if any of l-n ... l was.  Each step doubles
+   *  the extension, so the cost is O(log n) passes.
+   *  @param bitmap The bitmap to extend.
+   *  @param scratch A bitmap that is overwritten.
+   *  @param words The number of words in use.
+   *  @param n The number of locations to extend by.
+   */
+  public static void dilate (long[] bitmap, long[] scratch, int words, int n) {
+
+    int span = 0;
+
+    while (span < n) {
+      int step = Math.min (span + 1, n - span);
+
+      shift (bitmap, scratch, words, step);
+
+      for (int w = 0; w < words; w++)
+        bitmap[w] |= scratch[w];
+
+      span += step;
+    }
+  }
+
+  /**
+   *  Intersect two bitmaps.
+   *  @param a The first bitmap, which receives the result.
+   *  @param b The second bitmap.
+   *  @param words The number of words in use.
+   *  @return True if the result has any locations, otherwise false.
+   */
+  public static boolean and (long[] a, long[] b, int words) {
+
+    long any = 0;
+
+    for (int w = 0; w < words; w++) {
+      a[w] &= b[w];
+      any |= a[w];
+    }
+
+    return (any != 0);
+  }
+
+  /**
+   *  Get the locations in a bitmap.
+   *  @param bitmap The bitmap.
+   *  @param words The number of words in use.
+   *  @param locations Receives the locations, in increasing order.
+   *  @return The number of locations.
+   */
+  public static int getLocations (long[] bitmap, int words, int[] locations) {
+
+    int n = 0;
+
+    for (int w = 0; w < words; w++) {
+      long word = bitmap[w];
+
+      while (word != 0) {
+        locations[n++] = (w << 6) + Long.numberOfTrailingZeros (word);
+        word &= word - 1;
+      }
+    }
+
+    return n;
+  }
+}
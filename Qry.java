@@ -100,6 +100,13 @@ public abstract class Qry {
 	private boolean matchStored = false;	// Operators can cache matches
 	private int matchingDocid;
 
+	/**
+	 *  The order in which conjunctive docIterators visit the arguments,
+	 *  from the lowest cost to the highest, or null if it hasn't been
+	 *  computed since the query operator was initialized.
+	 */
+	protected int[] argOrder = null;
+
 	//  --------------- Methods ---------------------------------------
 
 	/**
@@ -248,14 +255,15 @@ public abstract class Qry {
 	protected boolean docIteratorHasMatchAll (RetrievalModel r) {
 
 		boolean matchFound = false;
+		int[] order = this.getArgOrder ();
 
 		// Keep trying until a match is found or no match is possible.
 
 		while (! matchFound) {
 
-			// Get the docid of the first query argument.
+			// Get the docid of the rarest query argument, which leads.
 
-			Qry q_0 = this.args.get (0);
+			Qry q_0 = this.args.get (order[0]);
 
 			if (! q_0.docIteratorHasMatch (r)) {
 				return false;
@@ -264,12 +272,13 @@ public abstract class Qry {
 			int docid_0 = q_0.docIteratorGetMatch ();
 
 			// Other query arguments must match the docid of the first query
-			// argument.
+			// argument.  They are checked from rarest to most common, so
+			// a mismatch is usually found early.
 
 			matchFound = true;
 
 			for (int i=1; i<this.args.size(); i++) {
-				Qry q_i = this.args.get(i);
+				Qry q_i = this.args.get(order[i]);
 
 				q_i.docIteratorAdvanceTo (docid_0);
 
@@ -359,10 +368,65 @@ public abstract class Qry {
 	 *  Set the matching docid cache.
 	 *  @param docid The internal document id to store in the cache.
 	 */
-	private void docIteratorSetMatchCache (int docid) {
+	protected void docIteratorSetMatchCache (int docid) {
 		this.docIteratorMatchCache = docid;
 	}
 
+	/**
+	 *  Get the order in which conjunctive docIterators visit the
+	 *  arguments:  the argument indexes, sorted by cost.  The rarest
+	 *  argument leads, and the others only advance to its candidates,
+	 *  so a common argument skips most of its postings.  The arguments
+	 *  themselves aren't reordered, because their order matters for
+	 *  scoring.  The arguments must be initialized.
+	 *  @return The argument indexes, from the lowest cost to the highest.
+	 */
+	protected int[] getArgOrder () {
+
+		if (this.argOrder != null)
+			return this.argOrder;
+
+		int numArgs = this.args.size ();
+		final long[] costs = new long[numArgs];
+		Integer[] order = new Integer[numArgs];
+
+		for (int i=0; i<numArgs; i++) {
+			costs[i] = this.args.get (i).getCost ();
+			order[i] = i;
+		}
+
+		Arrays.sort (order, new Comparator<Integer> () {
+			public int compare (Integer a, Integer b) {
+				return Long.compare (costs[a], costs[b]);
+			}
+		});
+
+		this.argOrder = new int[numArgs];
+
+		for (int i=0; i<numArgs; i++)
+			this.argOrder[i] = order[i];
+
+		return this.argOrder;
+	}
+
+	/**
+	 *  Get an estimate of the number of documents that the docIterator
+	 *  matches, which is used to order conjunctions.  The default is the
+	 *  sum of the arguments' costs, which is an upper bound for any
+	 *  query operator.  It is an error to call this method before the
+	 *  query operator is initialized.
+	 *  @return The estimated number of matching documents.
+	 */
+	public long getCost () {
+
+		long cost = 0;
+
+		for (Qry q_i: this.args)
+			cost += q_i.getCost ();
+
+		return cost;
+	}
+
 	/**
 	 *  Get the i'th query argument.  The main value of this method
 	 *  is that it casts the argument to the correct type.
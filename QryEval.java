@@ -61,6 +61,7 @@ public class QryEval {
 	private static final String[] TEXT_FIELDS =
 		{ "body", "title", "url", "inlink" };
 	private static final int topKResults = 100;
+	private static int collectorDepth = topKResults;
 	private static Map<String, String> parameters;
 	private static File out;
 	private static final int numBaseFeatures = 18;
@@ -104,6 +105,49 @@ public class QryEval {
 		ANALYZER.setStemmer(EnglishAnalyzerConfigurable.StemmerType.KSTEM);
 
 		Idx.initialize (parameters.get ("indexPath"));
+
+		//  An exported inverted list file replaces the index's inverted
+		//  lists for TERM operators.
+
+		if (parameters.containsKey ("invListFile"))
+			InvListFile.initialize (parameters.get ("invListFile"));
+
+		//  A phrase index provides the inverted lists of frequent
+		//  #NEAR/1 phrases.
+
+		if (parameters.containsKey ("phraseFile"))
+			InvListPhrases.initialize (parameters.get ("phraseFile"));
+
+		//  Inverted lists are prefetched in parallel if there are
+		//  prefetch threads.  The time that each query's prefetch saves
+		//  may be reported on stderr.
+
+		if (parameters.containsKey ("prefetchThreads"))
+			InvListPrefetcher.setThreads (
+				Integer.parseInt (parameters.get ("prefetchThreads")));
+
+		if (parameters.containsKey ("prefetchReportTimes"))
+			InvListPrefetcher.setReportTimes (
+				parameters.get ("prefetchReportTimes").equals ("true"));
+
+		//  The inverted list cache is shared by all queries.  Its size
+		//  is in megabytes.
+
+		if (parameters.containsKey ("invListCacheSize"))
+			InvListCache.setCapacity (
+				Long.parseLong (parameters.get ("invListCacheSize")) * 1024 * 1024);
+
+		//  Prefixes (e.g., comput*) expand to at most this many terms.
+
+		if (parameters.containsKey ("prefixMaxExpansions"))
+			QryIopPrefix.setMaxExpansions (
+				Integer.parseInt (parameters.get ("prefixMaxExpansions")));
+
+		//  Queries keep this many of their best documents.
+
+		if (parameters.containsKey ("collectorDepth"))
+			collectorDepth = Integer.parseInt (parameters.get ("collectorDepth"));
+
 		RetrievalModel model = initializeRetrievalModel (parameters);
 
 		//  Perform experiments.
@@ -125,6 +169,10 @@ public class QryEval {
 
 		//  Clean up.
 		timer.stop ();
+
+		if (InvListCache.isEnabled ())
+			System.out.println (InvListCache.getStatistics ());
+
 		System.out.println ("Time:  " + timer);
 	}
 
@@ -184,9 +232,66 @@ public class QryEval {
 			("Unknown retrieval model " + parameters.get("retrievalAlgorithm"));
 		}
 
+		initializeEvaluationOptions (model, parameters);
+
+		if (model instanceof RetrievalModelLetor)
+			initializeEvaluationOptions (((RetrievalModelLetor) model).getBM25Model(), parameters);
+
 		return model;
 	}
 
+	/**
+	 * Set the options that control how the retrieval model's queries
+	 * are evaluated.  The options are optional, and they don't change
+	 * the search results.
+	 * @param model The retrieval model that stores the options
+	 * @param parameters The parameters from the parameter file
+	 */
+	private static void initializeEvaluationOptions (RetrievalModel model,
+			Map<String, String> parameters) {
+
+		if (parameters.containsKey("streamingTerms"))
+			model.streamingTerms = parameters.get("streamingTerms").equals("true");
+
+		if (parameters.containsKey("compressedPostings"))
+			model.compressedPostings = parameters.get("compressedPostings").equals("true");
+
+		if (parameters.containsKey("streamingProximity"))
+			model.streamingProximity = parameters.get("streamingProximity").equals("true");
+
+		if (parameters.containsKey("wand"))
+			model.wand = parameters.get("wand").equals("true");
+
+		if (parameters.containsKey("maxScore"))
+			model.maxScore = parameters.get("maxScore").equals("true");
+
+		if (parameters.containsKey("blockMax"))
+			model.blockMax = parameters.get("blockMax").equals("true");
+
+		if (parameters.containsKey("taat"))
+			model.taat = parameters.get("taat").equals("true");
+
+		if (parameters.containsKey("taatAccumulatorLimit")) {
+			model.taatAccumulatorLimit = Integer.parseInt(parameters.get("taatAccumulatorLimit"));
+
+			if (model.taatAccumulatorLimit < 1)
+				throw new IllegalArgumentException
+				("taatAccumulatorLimit must be >= 1.");
+		}
+
+		if (parameters.containsKey("taatPruning")) {
+			String pruning = parameters.get("taatPruning");
+
+			if (pruning.equals("quit"))
+				model.taatQuit = true;
+			else if (pruning.equals("continue"))
+				model.taatQuit = false;
+			else
+				throw new IllegalArgumentException
+				("Unknown taatPruning:  " + pruning + ".  Use continue or quit.");
+		}
+	}
+
 	/**
 	 * Return a query tree that corresponds to the query.
 	 * 
@@ -239,19 +344,11 @@ public class QryEval {
 				while ((q != null) && parseQueryCleanup(q))
 					;
 
-				ScoreList r = new ScoreList ();
 				//RetrievalModel expansionModel = new RetrievalModelIndri(1000, 0.7);	
-				if (q.args.size () > 0) {		// Ignore empty queries
-					q.initialize (model);
-					while (q.docIteratorHasMatch (model)) {
-						int docid = q.docIteratorGetMatch ();
-						double score = ((QrySop) q).getScore (model);
-						r.add (docid, score);
-						q.docIteratorAdvancePast (docid);
-					}
-				}
-				r.sort();
 				int docsToRead = Math.min(topKResults, Integer.parseInt(parameters.get("fbDocs")));
+				ScoreList r = evaluateQuery (q, qId, model, docsToRead);
+				r.sort();
+				docsToRead = Math.min(docsToRead, r.size());
 				for (int i = 0; i < docsToRead; i++){
 					initialRankingDocScores.put(Idx.getExternalDocid(r.getDocid(i)), r.getDocidScore(i));
 
@@ -397,14 +494,29 @@ public class QryEval {
 				//  just in case a term (e.g., "near-death") gets tokenized into
 				//  multiple terms (e.g., "near" and "death").
 
-				String t[] = tokenizeQuery(term);
+				//  A term that ends with * is a prefix.  It is lower-cased,
+				//  but not stemmed, because stemming a prefix doesn't give
+				//  a prefix of the stemmed terms.
+
+				Qry termOps[];
+
+				if (term.endsWith("*")) {
+					termOps = new Qry[] {
+						new QryIopPrefix(term.substring(0, term.length() - 1).toLowerCase(), field) };
+				} else {
+					String t[] = tokenizeQuery(term);
+					termOps = new Qry[t.length];
+					for (int j = 0; j < t.length; j++)
+						termOps[j] = new QryIopTerm(t [j], field);
+				}
+
 				Double weight = 0.0;
 				if(currentOp instanceof QrySopWeightedAnd
 						|| currentOp instanceof QrySopWeightedSum)
 					weight = weightStack.pop();
 				// add the same weight for all args if this is a WAND or WSUM
-				for (int j = 0; j < t.length; j++) {
-					Qry termOp = new QryIopTerm(t [j], field);
+				for (int j = 0; j < termOps.length; j++) {
+					Qry termOp = termOps[j];
 					currentOp.appendArg (termOp);
 					if(currentOp instanceof QrySopWeightedAnd)
 						((QrySopWeightedAnd) currentOp).addWeight(weight);
@@ -519,25 +631,64 @@ public class QryEval {
 
 		//System.out.println("    --> " + q);
 
-		if (q != null) {
+		if (q != null)
+			return evaluateQuery (q, qId, model, collectorDepth);
+		else	return null;
+	}
+
+	/**
+	 * Evaluate a query tree, and keep the best documents.
+	 * @param q The query tree, which has been cleaned up.
+	 * @param qId The query id, which names the query's prefetch.
+	 * @param model The retrieval model determines how matching and scoring is done.
+	 * @param depth The number of documents to keep.
+	 * @return The best documents, unsorted.
+	 * @throws IOException Error accessing the index
+	 */
+	static ScoreList evaluateQuery(Qry q, String qId, RetrievalModel model, int depth)
+			throws IOException {
+
+		ScoreListCollector results = new ScoreListCollector (depth);
 
-			ScoreList r = new ScoreList ();
+		if (q.args.size () > 0) {		// Ignore empty queries
 
-			if (q.args.size () > 0) {		// Ignore empty queries
+			if (InvListPrefetcher.isEnabled ())
+				InvListPrefetcher.prefetch (q, model, qId);
 
-				q.initialize (model);
-				
-				while (q.docIteratorHasMatch (model)) {
-					int docid = q.docIteratorGetMatch ();
-					double score = ((QrySop) q).getScore (model);
-					r.add (docid, score);
-					q.docIteratorAdvancePast (docid);
-				}
-				
+			//  Flat queries of plain terms may be evaluated term-at-a-time,
+			//  which reads the terms' inverted lists itself, so the query
+			//  isn't initialized for document-at-a-time evaluation.
+
+			if (model.taat && QryTaat.isSupported (q, model)) {
+				QryTaat.evaluate (q, model, results);
+				return results.getScoreList ();
 			}
 
-			return r;
-		} else	return null;
+			q.initialize (model);
+
+			//  WAND and MaxScore need the score of the k'th best document
+			//  so far, which is the collector's threshold.
+
+			boolean wand = model.wand && (q instanceof QrySopSum) &&
+				((QrySopSum) q).isWandSupported (model);
+			boolean maxScore = model.maxScore && (q instanceof QrySop) &&
+				((QrySop) q).isMaxScoreSupported (model);
+
+			while (q.docIteratorHasMatch (model)) {
+				int docid = q.docIteratorGetMatch ();
+				double score = ((QrySop) q).getScore (model);
+				results.add (docid, score);
+
+				if (results.isFull () && wand)
+					((QrySopSum) q).setWandThreshold (model, results.getThreshold ());
+				else if (results.isFull () && maxScore)
+					((QrySop) q).setMaxScoreThreshold (model, results.getThreshold ());
+
+				q.docIteratorAdvancePast (docid);
+			}
+		}
+
+		return results.getScoreList ();
 	}
 
 	/**
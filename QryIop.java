@@ -53,6 +53,16 @@ public abstract class QryIop extends Qry {
 	 */
 	protected InvList invertedList = null;
 
+	/**
+	 *  Whether the query operator's consumer needs the locations of its
+	 *  postings.  If not, the operator may produce an inverted list that
+	 *  has term frequencies but no locations, which is much cheaper to
+	 *  read from the index.  The consumer sets this before the operator
+	 *  is initialized.  A QryIop needs the locations of its arguments,
+	 *  and a QrySopScore does not.
+	 */
+	protected boolean positionsRequired = true;
+
 	/**
 	 *  The index of the document that the docIterator points to now.
 	 */
@@ -63,6 +73,17 @@ public abstract class QryIop extends Qry {
 	 */
 	private int locIteratorIndex = QryIop.INVALID_ITERATOR_INDEX;
 
+	/**
+	 *  The posting that the locIterator iterates over, which is fetched
+	 *  from the inverted list once per document:  the index of the
+	 *  document, its location array (null if the inverted list has no
+	 *  locations), the index of its first location, and its tf.
+	 */
+	private int locPostingIndex = QryIop.INVALID_ITERATOR_INDEX;
+	private int[] locPositions;
+	private int locStart;
+	private int locTf;
+
 	/**
 	 *  Advance the query operator's internal iterator beyond the
 	 *  specified document.
@@ -70,9 +91,11 @@ public abstract class QryIop extends Qry {
 	 */
 	public void docIteratorAdvancePast (int docid) {
 
-		while ((this.docIteratorIndex < this.invertedList.df) &&
-				(this.invertedList.getDocid (this.docIteratorIndex) <= docid)) {
-			this.docIteratorIndex ++;
+		if (docid == Integer.MAX_VALUE) {
+			this.docIteratorFinish ();
+		} else {
+			this.docIteratorIndex =
+					this.invertedList.advanceTo (this.docIteratorIndex, docid + 1);
 		}
 
 		this.locIteratorIndex = 0;
@@ -85,20 +108,131 @@ public abstract class QryIop extends Qry {
 	 */
 	public void docIteratorAdvanceTo (int docid) {
 
-		while ((this.docIteratorIndex < this.invertedList.df) &&
-				(this.invertedList.getDocid (this.docIteratorIndex) < docid)) {
-			this.docIteratorIndex ++;
-		}
+		this.docIteratorIndex =
+				this.invertedList.advanceTo (this.docIteratorIndex, docid);
 
 		this.locIteratorIndex = 0;
 	}
 
+	/**
+	 *  Advance the docIterators of the query arguments to the next
+	 *  document that contains all of them.  This is a leapfrog
+	 *  intersection:  the argument with the lowest df leads, and
+	 *  whenever another argument is beyond the candidate document, the
+	 *  leader advances directly to it.  Query
+	 *  operators that require every argument to match (e.g., #NEAR/n)
+	 *  use this to align their arguments.
+	 *  @return The internal id of the document, or Qry.INVALID_DOCID
+	 *  if the arguments don't share any more documents.
+	 */
+	protected int docIteratorAlignArgs () {
+
+		int[] order = this.getArgOrder ();
+		Qry q_0 = this.args.get (order[0]);
+
+		while (true) {
+
+			if (! q_0.docIteratorHasMatch (null))
+				return Qry.INVALID_DOCID;
+
+			int docid = q_0.docIteratorGetMatch ();
+			boolean aligned = true;
+
+			for (int i=1; i<this.args.size(); i++) {
+				Qry q_i = this.args.get (order[i]);
+
+				q_i.docIteratorAdvanceTo (docid);
+
+				if (! q_i.docIteratorHasMatch (null))
+					return Qry.INVALID_DOCID;
+
+				int docid_i = q_i.docIteratorGetMatch ();
+
+				if (docid_i != docid) {
+					q_0.docIteratorAdvanceTo (docid_i);
+					aligned = false;
+					break;
+				}
+			}
+
+			if (aligned)
+				return docid;
+		}
+	}
+
+	/**
+	 *  Indicates whether the query operator needs the locations of its
+	 *  arguments' postings.  Most QryIop operators match locations, so
+	 *  the default is true.
+	 *  @return True if the arguments must have locations.
+	 */
+	protected boolean argPositionsRequired () {
+		return true;
+	}
+
+	/**
+	 *  Get the query operator's result from a precomputed index (e.g.,
+	 *  a phrase index), so that its arguments are not evaluated.  Most
+	 *  query operators don't have precomputed results.
+	 *  @return The inverted list, or null if it isn't precomputed.
+	 *  @throws IOException Error reading the precomputed index.
+	 */
+	protected InvList getPrecomputedResult () throws IOException {
+		return null;
+	}
+
+	/**
+	 *  Indicates whether getPrecomputedResult would find a result.
+	 *  @return True if the result is precomputed, otherwise false.
+	 */
+	protected boolean hasPrecomputedResult () {
+		return false;
+	}
+
+	/**
+	 *  Indicates whether the query operator's result may be shared with
+	 *  later queries through the inverted list cache.  Results are
+	 *  identified by getCanonicalForm.
+	 *  @return True if the result may be cached.
+	 */
+	protected boolean isResultCacheable () {
+		return true;
+	}
+
+	/**
+	 *  Move the docIterator back to the first document.  Inverted lists
+	 *  that can only be iterated once are evaluated again.
+	 *  @param r A retrieval model that may set evaluation options
+	 *  @throws IOException Error accessing the Lucene index.
+	 */
+	public void docIteratorRestart (RetrievalModel r) throws IOException {
+
+		if (this.invertedList.isSequential ()) {
+			this.initialize (r);
+		} else {
+			this.docIteratorIndex = 0;
+			this.locIteratorIndex = 0;
+		}
+	}
+
 	/**
 	 *  Advance the query operator's internal iterator beyond the
 	 *  any possible document.
 	 */
 	public void docIteratorFinish () {
-		this.docIteratorIndex = this.invertedList.postings.size();
+		this.docIteratorIndex = this.invertedList.df;
+	}
+
+	/**
+	 *  Find the block of the inverted list that docIteratorAdvanceTo
+	 *  (docid) would stop in, without moving the docIterator.  Dynamic
+	 *  pruning uses this to look up the block maxima of a document.
+	 *  @param docid The document's internal document id
+	 *  @return The index of the block, or the number of blocks if the
+	 *  docIterator would be exhausted.
+	 */
+	public int docIteratorGetBlock (int docid) {
+		return this.invertedList.getBlock (this.docIteratorIndex, docid);
 	}
 
 	/**
@@ -113,12 +247,35 @@ public abstract class QryIop extends Qry {
 	}
 
 	/**
-	 *  Return the postings for the document that the docIterator points to
-	 *  now, or throw an error if the docIterator doesn't point at a document.
-	 *  @return A document posting.
+	 *  Return the term frequency of the document that the docIterator
+	 *  points to now.  It is an error to call this method if the
+	 *  docIterator doesn't point to a document.
+	 *  @return The document's term frequency.
+	 */
+	public int docIteratorGetMatchTf () {
+		return this.invertedList.getTf (this.docIteratorIndex);
+	}
+
+	/**
+	 *  Return the array that stores the locations of the document that
+	 *  the docIterator points to now.  The locations start at
+	 *  docIteratorGetMatchPositionsStart and there are
+	 *  docIteratorGetMatchTf of them.  The array belongs to the inverted
+	 *  list, so it must not be modified.
+	 *  @return An array that contains the document's locations.
 	 */
-	public InvList.DocPosting docIteratorGetMatchPosting () {
-		return this.invertedList.postings.get(docIteratorIndex);
+	public int[] docIteratorGetMatchPositions () {
+		return this.invertedList.getPositions (this.docIteratorIndex);
+	}
+
+	/**
+	 *  Return the index of the first location of the document that the
+	 *  docIterator points to now in the array returned by
+	 *  docIteratorGetMatchPositions.
+	 *  @return The index of the document's first location.
+	 */
+	public int docIteratorGetMatchPositionsStart () {
+		return this.invertedList.getPositionsStart (this.docIteratorIndex);
 	}
 
 	/**
@@ -127,7 +284,7 @@ public abstract class QryIop extends Qry {
 	 *  @return True if the query matches a document, otherwise false.
 	 */
 	public boolean docIteratorHasMatch (RetrievalModel r) {
-		return (this.docIteratorIndex < this.invertedList.df);
+		return this.invertedList.hasPosting (this.docIteratorIndex);
 	}
 
 	/**
@@ -140,6 +297,15 @@ public abstract class QryIop extends Qry {
 		return this.invertedList.ctf;
 	}
 
+	/**
+	 *  Get an estimate of the number of documents that the docIterator
+	 *  matches, which is the df.
+	 *  @return The df.
+	 */
+	public long getCost () {
+		return this.invertedList.df;
+	}
+
 	/**
 	 *  Get the document frequency (df) associated with this query
 	 *  operator.  It is an error to call this method before the
@@ -150,6 +316,32 @@ public abstract class QryIop extends Qry {
 		return this.invertedList.df;
 	}
 
+	/**
+	 *  Get a canonical string version of this query operator, which is
+	 *  the same for every query operator that has the same operator,
+	 *  parameters, field, and arguments.  It identifies query operators
+	 *  whose results can be shared.
+	 *  @return The canonical string version of this query operator.
+	 */
+	public String getCanonicalForm () {
+
+		String result = this.getCanonicalName () + "(";
+
+		for (Qry q_i: this.args)
+			result += " " + ((QryIop) q_i).getCanonicalForm ();
+
+		return (result + " )");
+	}
+
+	/**
+	 *  Get the canonical name of this query operator, including any
+	 *  parameters.  This is used by getCanonicalForm.
+	 *  @return The canonical name of this query operator.
+	 */
+	protected String getCanonicalName () {
+		return this.getDisplayName ().toLowerCase ();
+	}
+
 	/**
 	 *  Get the field associated with this query operator.
 	 *  @return The field associated with this query operator.
@@ -161,9 +353,10 @@ public abstract class QryIop extends Qry {
 	/**
 	 *  Evaluate the query operator; the result is an internal inverted
 	 *  list that may be accessed via the internal iterators.
+	 *  @param r A retrieval model that may set evaluation options
 	 *  @throws IOException Error accessing the Lucene index.
 	 */
-	protected abstract void evaluate () throws IOException;
+	protected abstract void evaluate (RetrievalModel r) throws IOException;
 
 	/**
 	 *  Initialize the query operator (and its arguments), including any
@@ -173,20 +366,57 @@ public abstract class QryIop extends Qry {
 	 */
 	public void initialize(RetrievalModel r) throws IOException {
 
-		//  Initialize the query arguments (if any).
+		//  If an earlier query cached this operator's result, its
+		//  arguments don't need to be initialized or evaluated.
+
+		boolean cacheable =
+				this.isResultCacheable () && InvListCache.isEnabled ();
 
-		for (Qry q_i: this.args) {
-			((QryIop) q_i).initialize (r);
+		if (cacheable) {
+			this.invertedList =
+					InvListCache.getResult (this.getCanonicalForm (), this.positionsRequired);
+
+			if (this.invertedList != null) {
+				this.docIteratorIndex = 0;
+				this.locIteratorIndex = 0;
+				this.locPostingIndex = QryIop.INVALID_ITERATOR_INDEX;
+				return;
+			}
 		}
 
-		//  Evaluate the operator.
+		//  A precomputed result also makes the arguments unnecessary.
+
+		this.invertedList = this.getPrecomputedResult ();
+
+		if (this.invertedList == null) {
+
+			//  Initialize the query arguments (if any).
+
+			for (Qry q_i: this.args) {
+				((QryIop) q_i).positionsRequired = this.argPositionsRequired ();
+				((QryIop) q_i).initialize (r);
+			}
+
+			this.argOrder = null;
+
+			//  Evaluate the operator.
+
+			this.evaluate (r);
+
+			//  Cache the result for later queries.  Streaming results are
+			//  computed as they are iterated, so they can't be cached.
 
-		this.evaluate ();
+			if (cacheable && ! this.invertedList.isSequential ())
+				this.invertedList =
+						InvListCache.putResult (this.getCanonicalForm (), this.invertedList,
+								(r != null) && r.blockMax);
+		}
 
 		//  Initialize the internal iterators.
 
 		this.docIteratorIndex = 0;
 		this.locIteratorIndex = 0;
+		this.locPostingIndex = QryIop.INVALID_ITERATOR_INDEX;
 	}
 
 	/**
@@ -203,13 +433,42 @@ public abstract class QryIop extends Qry {
 	 *  @param loc The location to advance beyond.
 	 */
 	public void locIteratorAdvancePast (int loc) {
-		int tf = this.invertedList.postings.get(this.docIteratorIndex).tf;
-		Vector<Integer> positions = this.invertedList.postings.get(this.docIteratorIndex).positions;
+		this.locIteratorFetch ();
+
+		//  Gallop, so that skipping many locations in a long document
+		//  costs O(log distance), not O(distance).
+
+		int start = this.locStart;
+
+		if (loc == Integer.MAX_VALUE)
+			this.locIteratorIndex = this.locTf;
+		else if (this.locIteratorIndex < this.locTf)
+			this.locIteratorIndex = InvList.gallop (this.locPositions,
+					start + this.locIteratorIndex, start + this.locTf, loc + 1) - start;
+	}
+
+	/**
+	 *  Fetch the posting that the docIterator points to now, if it
+	 *  isn't fetched already.
+	 */
+	private void locIteratorFetch () {
+
+		if (this.locPostingIndex == this.docIteratorIndex)
+			return;
 
-		while ((this.locIteratorIndex < tf) &&
-				(positions.get (this.locIteratorIndex) <= loc)) {
-			locIteratorIndex ++;
+		int n = this.docIteratorIndex;
+
+		this.locTf = this.invertedList.getTf (n);
+
+		if (this.invertedList.hasPositions ()) {
+			this.locPositions = this.invertedList.getPositions (n);
+			this.locStart = this.invertedList.getPositionsStart (n);
+		} else {
+			this.locPositions = null;
+			this.locStart = 0;
 		}
+
+		this.locPostingIndex = n;
 	}
 
 	/**
@@ -217,8 +476,8 @@ public abstract class QryIop extends Qry {
 	 *  any possible location.
 	 */
 	public void locIteratorFinish () {
-		this.locIteratorIndex =
-				this.invertedList.postings.get(this.docIteratorIndex).tf;
+		this.locIteratorFetch ();
+		this.locIteratorIndex = this.locTf;
 	}
 
 	/**
@@ -229,8 +488,8 @@ public abstract class QryIop extends Qry {
 	 *  @return The internal id of the current document.
 	 */
 	public int locIteratorGetMatch () {
-		Vector<Integer> locations = this.docIteratorGetMatchPosting().positions;
-		return locations.get (this.locIteratorIndex);
+		this.locIteratorFetch ();
+		return this.locPositions[this.locStart + this.locIteratorIndex];
 	}
 
 	/**
@@ -239,8 +498,8 @@ public abstract class QryIop extends Qry {
 	 *  @return True if the iterator currently points to a location.
 	 */
 	public boolean locIteratorHasMatch () {
-		return (this.locIteratorIndex <
-				this.invertedList.getTf (this.docIteratorIndex));
+		this.locIteratorFetch ();
+		return (this.locIteratorIndex < this.locTf);
 	}
 	
 	/**
@@ -7,13 +7,13 @@ import java.util.*;
 /**
  *  The NEAR operator for all retrieval models.
  */
-public class QryIopNear extends QryIop {
+public class QryIopNear extends QryIopProximity {
 
 	/**
-	 *  This query operator has a parameter (eg. 2 in #NEAR/2), that 
-	 *  is not considered an argument.
+	 *  Scratch space for the location matcher:  the index of the first
+	 *  location of each argument that a match could use.
 	 */
-	protected int maxDistance;
+	private int[] cursor;
 
 	/**
 	 *  Custom constructor
@@ -23,124 +23,162 @@ public class QryIopNear extends QryIop {
 	}
 
 	/**
-	 *  Evaluate the query operator; the result is an internal inverted
-	 *  list that may be accessed via the internal iterators.
-	 *  @throws IOException Error accessing the Lucene index.
+	 *  Get the canonical name of this query operator.
+	 *  @return The canonical name of this query operator.
 	 */
-	protected void evaluate () throws IOException {
-
-		//  Create an empty inverted list.  If there are no query arguments,
-		//  that's the final result.
-
-		this.invertedList = new InvList (this.getField());
-
-		if (args.size () == 0)	return;
-
-		//  Each pass of the loop adds 1 document to result inverted list
-		//  until all of the argument inverted lists are depleted.
-
-		while (true) {
-			//  Find the minimum next document id that contains all arguments.   	
-			int minDocid = Qry.INVALID_DOCID;
-			boolean allMatch = false;
-			while(!allMatch){
-				allMatch = true;
-				for (int i=0; i<this.args.size(); i++) {
-					Qry q_i = this.args.get(i);
-					if(i > 0 && minDocid != Qry.INVALID_DOCID)
-						q_i.docIteratorAdvanceTo(minDocid);
-					if (q_i.docIteratorHasMatch (null)) {
-
-						int q_iDocid = q_i.docIteratorGetMatch ();
-						if(i == 0)
-							minDocid = q_iDocid;
-						if(i > 0 && minDocid != q_iDocid)	{
-							this.args.get(0).docIteratorAdvancePast(minDocid);
-							allMatch = false;
-							break;
-						}
-					}
-					else{
-						allMatch = false;
-						minDocid = Qry.INVALID_DOCID;
-						break;
-					}
-				}
+	protected String getCanonicalName () {
+		return "#near/" + this.maxDistance;
+	}
 
-				if (minDocid == Qry.INVALID_DOCID)
-					break;				// All docids have been processed.  Done.
-			}
+	/**
+	 *  A #NEAR/1 of two terms is a phrase, so its result may be in the
+	 *  phrase index.
+	 *  @return The inverted list, or null if it isn't precomputed.
+	 *  @throws IOException Error reading the phrase index.
+	 */
+	protected InvList getPrecomputedResult () throws IOException {
 
-			if (minDocid == Qry.INVALID_DOCID)
-				break;				// All docids have been processed.  Done.
+		if (! this.isPhrase ())
+			return null;
 
-			List<Integer> positions = new ArrayList<Integer>();
-			// postings for all the arguments
-			List<Vector<Integer>> postingsLists = new ArrayList<Vector<Integer>>();
-			for (Qry q_i: this.args) {
-				if (!q_i.docIteratorHasMatch (null) ||
-						q_i.docIteratorGetMatch () != minDocid) {
-					System.out.println("Unexpected: No common docid was found");  
-				}
-				Vector<Integer> locations_i =
-						((QryIop) q_i).docIteratorGetMatchPosting().positions;
-				postingsLists.add(locations_i);
-				q_i.docIteratorAdvancePast (minDocid);
-			}
-			getValidNearPositions(positions, postingsLists);
-			Collections.sort (positions);
-			if(positions.size() > 0)	this.invertedList.appendPosting (minDocid, positions);
-		}
+		return InvListPhrases.getInvList (((QryIopTerm) this.args.get (0)).getTerm (),
+				((QryIopTerm) this.args.get (1)).getTerm (), this.getField ());
+	}
+
+	/**
+	 *  Indicates whether the phrase index has this operator's result.
+	 *  @return True if the result is precomputed, otherwise false.
+	 */
+	protected boolean hasPrecomputedResult () {
+		return this.isPhrase () &&
+				InvListPhrases.contains (((QryIopTerm) this.args.get (0)).getTerm (),
+						((QryIopTerm) this.args.get (1)).getTerm (), this.getField ());
+	}
+
+	/**
+	 *  Indicates whether this operator is a phrase of two terms that the
+	 *  phrase index could have.
+	 *  @return True if the operator is such a phrase, otherwise false.
+	 */
+	private boolean isPhrase () {
+		return (this.maxDistance == 1) &&
+				(this.args.size () == 2) &&
+				(this.args.get (0) instanceof QryIopTerm) &&
+				(this.args.get (1) instanceof QryIopTerm) &&
+				InvListPhrases.isOpen ();
 	}
 
-	private void getValidNearPositions(List<Integer> positions,
-			List<Vector<Integer>> postingsLists) {
+	/**
+	 *  Find the locations in one document where the arguments occur in
+	 *  order, each within maxDistance of the previous one.  Matches do
+	 *  not share argument locations.  The location of a match is the
+	 *  location of its last argument.
+	 *  <p>
+	 *  Each location of the first argument starts a candidate match,
+	 *  which takes the first unused location of each later argument
+	 *  that is after the previous argument's location.  The candidates
+	 *  only move forward, so each argument keeps one cursor that never
+	 *  moves backward, and the cost is linear in the number of
+	 *  locations.
+	 *  </p>
+	 *  @param matches Receives the matching locations, in increasing order.
+	 *  @param locations The location array of each argument.
+	 *  @param start The index of each argument's first location.
+	 *  @param end The index just past each argument's last location.
+	 *  @return The number of matches.
+	 */
+	protected int getMatches(int[] matches, int[][] locations,
+			int[] start, int[] end) {
+
+		int numArgs = locations.length;
+		int numMatches = 0;
+
+		if (this.cursor == null)
+			this.cursor = new int[numArgs];
+
+		int[] next = this.cursor;
+
+		System.arraycopy (start, 0, next, 0, numArgs);
 
-		List<ListIterator<Integer>> postingsIterators = new ArrayList<ListIterator<Integer>>();
-		for(Vector<Integer> postings : postingsLists)
-			postingsIterators.add(postings.listIterator());
-		int numPostings = postingsLists.size();
+		for (int l_0 = start[0]; l_0 < end[0]; l_0++) {
 
-		while(true){
-			boolean postingEmpty = false; 
+			int prevLocation = locations[0][l_0];
 			boolean matchFound = true;
-			Integer prevPosition = QryIop.INVALID_ITERATOR_INDEX;
-			int[] stepsMoved = new int[numPostings];
-			for(int i=0;i<numPostings; i++){
-				ListIterator<Integer> it = postingsIterators.get(i);
-				if(!it.hasNext()){
-					postingEmpty = true;
+
+			for (int i=1; i<numArgs; i++) {
+
+				next[i] = InvList.gallop (locations[i], next[i], end[i], prevLocation + 1);
+
+				//  If argument i has no location after the previous
+				//  argument, later candidates can't match either.
+
+				if (next[i] >= end[i])
+					return numMatches;
+
+				if (locations[i][next[i]] - prevLocation > this.maxDistance) {
+					matchFound = false;
 					break;
 				}
-				int position = it.next();
-				stepsMoved[i] = 1;
-				if(i == 0)
-					prevPosition = position;
-				else{
-					// order
-					while(position <= prevPosition && it.hasNext()){
-						position = it.next();
-						stepsMoved[i]++;
-					}
-					// order and distance
-					if(position > prevPosition && position -  prevPosition <= this.maxDistance)	{
-						prevPosition = position; 
-					}
-					else{
-
-						matchFound = false;
-						for(int k=1;k<=i; k++){
-							ListIterator<Integer> pit = postingsIterators.get(k);
-							for(int m=0; m<stepsMoved[k]; m++)	pit.previous();
-						}
-						break;
-					}
-				}
 
+				prevLocation = locations[i][next[i]];
 			}
-			if(postingEmpty)	break;
-			if(matchFound)	positions.add(prevPosition);
+
+			if (matchFound) {
+				matches[numMatches++] = prevLocation;
+
+				for (int i=1; i<numArgs; i++)
+					next[i] ++;
+			}
+		}
+
+		return numMatches;
+	}
+
+	/**
+	 *  Find the matching locations in one document where the arguments
+	 *  are dense.  A bitmap tracks where a chain of the first i
+	 *  arguments, each within maxDistance after the previous one, could
+	 *  end:  it is shifted forward by 1 to maxDistance locations and
+	 *  intersected with the next argument's locations.  If no chain can
+	 *  end, there is no match.
+	 *  <p>
+	 *  For #NEAR/1 the chains are exact, because each argument must be
+	 *  at the next location, so the matches are the locations left in
+	 *  the bitmap.  For larger distances, chains may share locations,
+	 *  which matches don't, so the bitmap only rules documents out, and
+	 *  getMatches finds the matches.
+	 *  </p>
+	 *  @param matches Receives the matching locations, in increasing order.
+	 *  @param locations The location array of each argument.
+	 *  @param start The index of each argument's first location.
+	 *  @param end The index just past each argument's last location.
+	 *  @param words The number of bitmap words that the locations need.
+	 *  @return The number of matches.
+	 */
+	protected int getMatchesBitmap(int[] matches, int[][] locations,
+			int[] start, int[] end, int words) {
+
+		int numArgs = locations.length;
+
+		this.setBitmaps (locations, start, end, words);
+
+		for (int i=1; i<numArgs; i++) {
+
+			LocationBitmap.shift (this.bitmap, this.bitmap, words, 1);
+			LocationBitmap.dilate (this.bitmap, this.scratchBitmap, words,
+					this.maxDistance - 1);
+
+			this.argBitmap = LocationBitmap.set (this.argBitmap, words,
+					locations[i], start[i], end[i]);
+
+			if (! LocationBitmap.and (this.bitmap, this.argBitmap, words))
+				return 0;
 		}
+
+		if (this.maxDistance == 1)
+			return LocationBitmap.getLocations (this.bitmap, words, matches);
+		else
+			return this.getMatches (matches, locations, start, end);
 	}
 
 }
@@ -0,0 +1,138 @@
+/**
+ *  Copyright (c) 2015, Carnegie Mellon University.  All Rights Reserved.
+ */
+import java.io.*;
+import java.util.*;
+
+import org.apache.lucene.index.*;
+import org.apache.lucene.util.*;
+
+/**
+ *  The PREFIX operator for all retrieval models, which matches every
+ *  term that starts with a prefix (e.g., comput* matches compute,
+ *  computer, and computing).  The query parser creates it for query
+ *  terms that end with *.
+ *  <p>
+ *  The prefix is expanded from the index's term dictionary when the
+ *  operator is created, and the expansion is a #SYN of the terms.  If
+ *  more terms match than the expansion limit allows, the most frequent
+ *  terms are used.  The terms' inverted lists are always streamed, so
+ *  the #SYN heap merge holds one posting per term in memory instead of
+ *  every term's inverted list, and expansions to thousands of terms
+ *  stay within bounded memory.
+ *  </p>
+ */
+public class QryIopPrefix extends QryIopSyn {
+
+  /**
+   *  The default maximum number of terms that a prefix expands to.
+   */
+  private static final int DEFAULT_MAX_EXPANSIONS = 1000;
+
+  /**
+   *  The maximum number of terms that a prefix expands to.
+   */
+  private static int maxExpansions = DEFAULT_MAX_EXPANSIONS;
+
+  private String prefix;
+
+  /**
+   *  The sum of the expansion terms' dfs.
+   */
+  private long expansionDf = 0;
+
+  /**
+   *  Set the maximum number of terms that a prefix expands to.
+   *  @param n The maximum number of terms.
+   */
+  public static synchronized void setMaxExpansions (int n) {
+
+    if (n < 1)
+      throw new IllegalArgumentException ("The maximum number of prefix expansions must be >= 1.");
+
+    maxExpansions = n;
+  }
+
+  /**
+   *  Create a PREFIX operator, and expand the prefix from the term
+   *  dictionary.
+   *  @param prefixString The prefix, which is lower-cased but not stemmed.
+   *  @param fieldString The field that the terms occur in.
+   *  @throws IOException Error accessing the Lucene index.
+   */
+  public QryIopPrefix (String prefixString, String fieldString) throws IOException {
+
+    if (prefixString.length () == 0)
+      throw new IllegalArgumentException ("A prefix must have at least one character.");
+
+    this.prefix = prefixString;
+    this.field = fieldString;
+    this.setDisplayName ("#PREFIX");
+
+    for (String term : this.expand ())
+      this.appendArg (new QryIopTerm (term, fieldString, true));
+  }
+
+  /**
+   *  Find the terms that start with the prefix.  The TermsEnum is
+   *  positioned at the prefix, and the terms that start with it follow
+   *  it in sorted order.
+   *  @return The terms, in sorted order.
+   *  @throws IOException Error accessing the Lucene index.
+   */
+  private List<String> expand () throws IOException {
+
+    List<String> expansion = new ArrayList<String> ();
+    Terms terms = MultiFields.getTerms (Idx.INDEXREADER, this.field);
+
+    if (terms == null)
+      return expansion;
+
+    BytesRef prefixBytes = new BytesRef (this.prefix);
+    TermsEnum ithTerm = terms.iterator (null);
+
+    if (ithTerm.seekCeil (prefixBytes) == TermsEnum.SeekStatus.END)
+      return expansion;
+
+    FrequentTerms frequent = new FrequentTerms (maxExpansions);
+    BytesRef termBytes = ithTerm.term ();
+
+    while ((termBytes != null) && StringHelper.startsWith (termBytes, prefixBytes)) {
+      frequent.add (termBytes.utf8ToString (), ithTerm.docFreq ());
+      termBytes = ithTerm.next ();
+    }
+
+    expansion.addAll (Arrays.asList (frequent.getTerms ()));
+    this.expansionDf = frequent.getSumOfDfs ();
+
+    Collections.sort (expansion);
+    return expansion;
+  }
+
+  /**
+   *  Get an estimate of the number of documents that the docIterator
+   *  matches.  Before the operator is initialized, this is the sum of
+   *  the expansion terms' dfs.
+   *  @return The estimated number of matching documents.
+   */
+  public long getCost () {
+    return (this.invertedList != null) ? this.invertedList.df : this.expansionDf;
+  }
+
+  /**
+   *  Get a canonical string version of this query operator.  The
+   *  expansion is determined by the prefix and field.
+   *  @return The canonical string version of this query operator.
+   */
+  public String getCanonicalForm () {
+    return (this.prefix + "*." + this.field);
+  }
+
+  /**
+   *  Get a string version of this query operator.
+   *  @return The string version of this query operator.
+   */
+  public String toString () {
+    return (this.prefix + "*." + this.field);
+  }
+}
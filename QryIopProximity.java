@@ -0,0 +1,278 @@
+/**
+ *  Copyright (c) 2015, Carnegie Mellon University.  All Rights Reserved.
+ */
+import java.io.*;
+import java.util.*;
+
+/**
+ *  The parent class of proximity operators (e.g., #NEAR/n and
+ *  #WINDOW/n) whose arguments must all occur in a document, at
+ *  locations that satisfy a distance constraint.  Subclasses only
+ *  define how the locations of one document are matched.
+ *  <p>
+ *  By default the result inverted list is computed when the operator
+ *  is initialized.  If the retrieval model's streamingProximity option
+ *  is true, the matches for each candidate document are computed only
+ *  when the docIterator reaches the document, so neither the result
+ *  list nor (with streaming arguments) the argument lists are held in
+ *  memory.  The df and ctf are still needed before iteration, so they
+ *  come from a counting pass over the arguments, which are then
+ *  restarted.  The counts are cached, so each distinct proximity
+ *  expression is counted once.
+ *  </p><p>
+ *  Documents where the arguments are dense (e.g., long documents that
+ *  repeat the query terms) are matched with LocationBitmap word
+ *  operations, via getMatchesBitmap, which subclasses may override.
+ *  </p>
+ */
+public abstract class QryIopProximity extends QryIop {
+
+	/**
+	 *  The maximum number of entries in the statistics cache.
+	 */
+	private static final int STATISTICS_CACHE_SIZE = 10000;
+
+	/**
+	 *  The df and ctf of proximity expressions that have been counted,
+	 *  indexed by canonical form.
+	 */
+	private static final Map<String, int[]> STATISTICS =
+			new LinkedHashMap<String, int[]> (16, 0.75f, true) {
+				protected boolean removeEldestEntry (Map.Entry<String, int[]> e) {
+					return size () > STATISTICS_CACHE_SIZE;
+				}
+			};
+
+	/**
+	 *  Bitmaps are used for a document if the smallest argument tf
+	 *  times the number of arguments is at least this large, and the
+	 *  bitmaps have no more words than the arguments have locations.
+	 */
+	private static final int BITMAP_THRESHOLD = 256;
+
+	/**
+	 *  This query operator has a parameter (eg. 2 in #NEAR/2), that
+	 *  is not considered an argument.
+	 */
+	protected int maxDistance;
+
+	/**
+	 *  Scratch space for the locations of each argument in the current
+	 *  document.  It is reused for every document.
+	 */
+	private int[][] locations;
+	private int[] locationsStart;
+	private int[] locationsEnd;
+
+	/**
+	 *  The matching locations in the last document that
+	 *  nextMatchDocument found.
+	 */
+	protected int[] matches = new int[16];
+	protected int numMatches = 0;
+
+	/**
+	 *  Scratch bitmaps for getMatchesBitmap.  They are reused for every
+	 *  document.
+	 */
+	protected long[] bitmap;
+	protected long[] argBitmap;
+	protected long[] scratchBitmap;
+
+	/**
+	 *  Evaluate the query operator; the result is an internal inverted
+	 *  list that may be accessed via the internal iterators.
+	 *  @param r A retrieval model that may set evaluation options
+	 *  @throws IOException Error accessing the Lucene index.
+	 */
+	protected void evaluate (RetrievalModel r) throws IOException {
+
+		//  If there are no query arguments, the result is an empty
+		//  inverted list.
+
+		if (args.size () == 0) {
+			this.invertedList = new InvList (this.getField());
+			return;
+		}
+
+		int numArgs = this.args.size ();
+		this.locations = new int[numArgs][];
+		this.locationsStart = new int[numArgs];
+		this.locationsEnd = new int[numArgs];
+
+		if ((r != null) && r.streamingProximity) {
+			int[] stats = this.getStatistics (r);
+			this.invertedList = new InvListProximity (this, stats[0], stats[1]);
+			return;
+		}
+
+		//  Each pass of the loop adds 1 document to result inverted list
+		//  until all of the argument inverted lists are depleted.
+
+		this.invertedList = new InvList (this.getField());
+
+		int docid;
+
+		while ((docid = this.nextMatchDocument (Qry.INVALID_DOCID)) != Qry.INVALID_DOCID) {
+			if (this.positionsRequired)
+				this.invertedList.appendPosting (docid, this.matches, 0, this.numMatches);
+			else
+				this.invertedList.appendPostingTf (docid, this.numMatches);
+		}
+	}
+
+	/**
+	 *  Get the df and ctf of the query operator, from the statistics
+	 *  cache if possible, otherwise by counting the matches of every
+	 *  document.  Counting consumes the arguments' docIterators, so the
+	 *  arguments are restarted afterwards.
+	 *  @param r A retrieval model that may set evaluation options
+	 *  @return An array that contains the df and the ctf.
+	 *  @throws IOException Error accessing the Lucene index.
+	 */
+	private int[] getStatistics (RetrievalModel r) throws IOException {
+
+		String key = this.getCanonicalForm ();
+		int[] stats;
+
+		synchronized (STATISTICS) {
+			stats = STATISTICS.get (key);
+		}
+
+		if (stats != null)
+			return stats;
+
+		stats = new int[2];
+
+		while (this.nextMatchDocument (Qry.INVALID_DOCID) != Qry.INVALID_DOCID) {
+			stats[0] ++;
+			stats[1] += this.numMatches;
+		}
+
+		for (Qry q_i: this.args)
+			((QryIop) q_i).docIteratorRestart (r);
+
+		synchronized (STATISTICS) {
+			STATISTICS.put (key, stats);
+		}
+
+		return stats;
+	}
+
+	/**
+	 *  Find the next document that matches the query operator, and its
+	 *  matching locations, which are stored in matches and numMatches.
+	 *  The arguments are left just past the document.
+	 *  @param docid If valid, the arguments first advance to this docid,
+	 *  so that documents before it are skipped without being matched.
+	 *  @return The internal id of the document, or Qry.INVALID_DOCID if
+	 *  there are no more matching documents.
+	 */
+	protected int nextMatchDocument (int docid) {
+
+		if (docid != Qry.INVALID_DOCID)
+			for (Qry q_i: this.args)
+				q_i.docIteratorAdvanceTo (docid);
+
+		int numArgs = this.args.size ();
+
+		while (true) {
+
+			//  Find the next document id that contains all arguments.
+
+			int minDocid = this.docIteratorAlignArgs ();
+
+			if (minDocid == Qry.INVALID_DOCID)
+				return Qry.INVALID_DOCID;
+
+			//  Gather the locations of every argument in this document.
+			//  The arguments are advanced only after the matches are
+			//  found, because the locations belong to their inverted lists.
+
+			int maxMatches = Integer.MAX_VALUE;
+			int totalTf = 0;
+			int maxLocation = 0;
+			for (int i=0; i<numArgs; i++) {
+				QryIop q_i = this.getArg (i);
+				int tf_i = q_i.docIteratorGetMatchTf ();
+				this.locations[i] = q_i.docIteratorGetMatchPositions ();
+				this.locationsStart[i] = q_i.docIteratorGetMatchPositionsStart ();
+				this.locationsEnd[i] = this.locationsStart[i] + tf_i;
+				maxMatches = Math.min (maxMatches, tf_i);
+				totalTf += tf_i;
+				if (tf_i > 0)
+					maxLocation = Math.max (maxLocation,
+							this.locations[i][this.locationsEnd[i] - 1]);
+			}
+
+			if (this.matches.length < maxMatches)
+				this.matches = new int[Math.max (maxMatches, 2 * this.matches.length)];
+
+			int words = LocationBitmap.words (maxLocation);
+
+			if ((maxMatches * numArgs >= BITMAP_THRESHOLD) && (words <= totalTf))
+				this.numMatches = this.getMatchesBitmap (this.matches, this.locations,
+						this.locationsStart, this.locationsEnd, words);
+			else
+				this.numMatches = this.getMatches (this.matches, this.locations,
+						this.locationsStart, this.locationsEnd);
+
+			for (Qry q_i: this.args)
+				q_i.docIteratorAdvancePast (minDocid);
+
+			if (this.numMatches > 0)
+				return minDocid;
+		}
+	}
+
+	/**
+	 *  Find the matching locations in one document.
+	 *  @param matches Receives the matching locations, in increasing order.
+	 *  It has room for as many matches as the smallest argument tf.
+	 *  @param locations The location array of each argument.
+	 *  @param start The index of each argument's first location.
+	 *  @param end The index just past each argument's last location.
+	 *  @return The number of matches.
+	 */
+	protected abstract int getMatches (int[] matches, int[][] locations,
+			int[] start, int[] end);
+
+	/**
+	 *  Find the matching locations in one document where the arguments
+	 *  are dense, using bitmaps of their locations.  The default just
+	 *  calls getMatches.
+	 *  @param matches Receives the matching locations, in increasing order.
+	 *  It has room for as many matches as the smallest argument tf.
+	 *  @param locations The location array of each argument.
+	 *  @param start The index of each argument's first location.
+	 *  @param end The index just past each argument's last location.
+	 *  @param words The number of bitmap words that the locations need.
+	 *  @return The number of matches.
+	 */
+	protected int getMatchesBitmap (int[] matches, int[][] locations,
+			int[] start, int[] end, int words) {
+		return this.getMatches (matches, locations, start, end);
+	}
+
+	/**
+	 *  Set the bitmap to the locations of the first argument, and make
+	 *  sure that the other scratch bitmaps are large enough for this
+	 *  document.
+	 *  @param locations The location array of each argument.
+	 *  @param start The index of each argument's first location.
+	 *  @param end The index just past each argument's last location.
+	 *  @param words The number of bitmap words that the locations need.
+	 */
+	protected void setBitmaps (int[][] locations, int[] start, int[] end,
+			int words) {
+
+		this.bitmap = LocationBitmap.set (this.bitmap, words,
+				locations[0], start[0], end[0]);
+
+		if ((this.argBitmap == null) || (this.argBitmap.length < this.bitmap.length)) {
+			this.argBitmap = new long[this.bitmap.length];
+			this.scratchBitmap = new long[this.bitmap.length];
+		}
+	}
+
+}
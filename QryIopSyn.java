@@ -6,68 +6,290 @@ import java.util.*;
 
 /**
  *  The SYN operator for all retrieval models.
+ *  <p>
+ *  The arguments' inverted lists are merged by a min-heap of the
+ *  arguments, ordered by their current docids, so each posting costs
+ *  O(log k) for k arguments.  The locations of the arguments that
+ *  match a document are sorted runs, so they are merged by a second
+ *  min-heap, and locations that occur in more than one argument (e.g.,
+ *  in #SYN (apple apple)) are kept once.
+ *  </p>
  */
 public class QryIopSyn extends QryIop {
 
+  /**
+   *  Scratch space for the docid merge:  the current docid of each
+   *  argument, a min-heap of arguments ordered by docid, and the
+   *  arguments that match the current document.
+   */
+  private int[] docids;
+  private int[] docHeap;
+  private int[] group;
+
+  /**
+   *  Scratch space for the location merge:  the locations, next index,
+   *  and end of each run, the current location of each run, a min-heap
+   *  of runs ordered by location, and the merged locations.
+   */
+  private int[][] runLocations;
+  private int[] runNext;
+  private int[] runEnd;
+  private int[] runLocation;
+  private int[] runHeap;
+  private int[] positions = new int[16];
+
+  /**
+   *  The SYN operator only needs the locations of its arguments if its
+   *  own consumer needs locations, or to remove duplicate locations.
+   *  Otherwise it just adds up their term frequencies.
+   *  @return True if the arguments must have locations.
+   */
+  protected boolean argPositionsRequired () {
+    return this.positionsRequired || ! this.argsDisjoint ();
+  }
+
+  /**
+   *  Indicates whether the arguments can't share locations.  Different
+   *  terms never occur at the same location, but the same term twice,
+   *  or other query operators, can.
+   *  @return True if the arguments are all different terms.
+   */
+  private boolean argsDisjoint () {
+
+    Set<String> terms = new HashSet<String> ();
+
+    for (Qry q_i: this.args)
+      if (! (q_i instanceof QryIopTerm) ||
+          ! terms.add (((QryIopTerm) q_i).getCanonicalForm ()))
+        return false;
+
+    return true;
+  }
+
   /**
    *  Evaluate the query operator; the result is an internal inverted
    *  list that may be accessed via the internal iterators.
+   *  @param r A retrieval model that may set evaluation options
    *  @throws IOException Error accessing the Lucene index.
    */
-  protected void evaluate () throws IOException {
+  protected void evaluate (RetrievalModel r) throws IOException {
 
     //  Create an empty inverted list.  If there are no query arguments,
     //  that's the final result.
-    
+
     this.invertedList = new InvList (this.getField());
 
     if (args.size () == 0) {
       return;
     }
 
+    int numArgs = this.args.size ();
+    boolean argPositions = this.argPositionsRequired ();
+
+    this.docids = new int[numArgs];
+    this.docHeap = new int[numArgs];
+    this.group = new int[numArgs];
+
+    if (argPositions) {
+      this.runLocations = new int[numArgs][];
+      this.runNext = new int[numArgs];
+      this.runEnd = new int[numArgs];
+      this.runLocation = new int[numArgs];
+      this.runHeap = new int[numArgs];
+    }
+
+    //  Put the arguments that have postings on the docid heap.
+
+    int heapSize = 0;
+
+    for (int i=0; i<numArgs; i++) {
+      Qry q_i = this.args.get (i);
+
+      if (q_i.docIteratorHasMatch (null)) {
+        this.docids[i] = q_i.docIteratorGetMatch ();
+        this.docHeap[heapSize++] = i;
+      }
+    }
+
+    for (int h=heapSize/2 - 1; h>=0; h--)
+      siftDown (this.docHeap, this.docids, h, heapSize);
+
     //  Each pass of the loop adds 1 document to result inverted list
     //  until all of the argument inverted lists are depleted.
 
-    while (true) {
+    while (heapSize > 0) {
+
+      //  Remove the arguments that match the minimum docid from the heap.
 
-      //  Find the minimum next document id.  If there is none, we're done.
+      int minDocid = this.docids[this.docHeap[0]];
+      int groupSize = 0;
+
+      while ((heapSize > 0) && (this.docids[this.docHeap[0]] == minDocid)) {
+        this.group[groupSize++] = this.docHeap[0];
+        this.docHeap[0] = this.docHeap[--heapSize];
+        siftDown (this.docHeap, this.docids, 0, heapSize);
+      }
 
-      int minDocid = Qry.INVALID_DOCID;
+      //  Create a new posting that is the union of the postings that
+      //  match the minDocid.  Save it.  The locations belong to the
+      //  arguments' inverted lists, so the arguments are advanced
+      //  afterwards.
+
+      if (! argPositions) {
+        int tf = 0;
+
+        for (int g=0; g<groupSize; g++)
+          tf += this.getArg (this.group[g]).docIteratorGetMatchTf ();
+
+        this.invertedList.appendPostingTf (minDocid, tf);
+      } else if (groupSize == 1) {
+        QryIop q_i = this.getArg (this.group[0]);
+
+        if (this.positionsRequired)
+          this.invertedList.appendPosting (minDocid,
+                                           q_i.docIteratorGetMatchPositions (),
+                                           q_i.docIteratorGetMatchPositionsStart (),
+                                           q_i.docIteratorGetMatchTf ());
+        else
+          this.invertedList.appendPostingTf (minDocid, q_i.docIteratorGetMatchTf ());
+      } else {
+        int tf = this.mergePositions (groupSize);
+
+        if (this.positionsRequired)
+          this.invertedList.appendPosting (minDocid, this.positions, 0, tf);
+        else
+          this.invertedList.appendPostingTf (minDocid, tf);
+      }
+
+      //  Advance the arguments, and put the ones that still have
+      //  postings back on the heap.
+
+      for (int g=0; g<groupSize; g++) {
+        int i = this.group[g];
+        Qry q_i = this.args.get (i);
+
+        q_i.docIteratorAdvancePast (minDocid);
 
-      for (Qry q_i: this.args) {
         if (q_i.docIteratorHasMatch (null)) {
-          int q_iDocid = q_i.docIteratorGetMatch ();
-          
-          if ((minDocid > q_iDocid) ||
-              (minDocid == Qry.INVALID_DOCID)) {
-            minDocid = q_iDocid;
-          }
+          this.docids[i] = q_i.docIteratorGetMatch ();
+          this.docHeap[heapSize] = i;
+          siftUp (this.docHeap, this.docids, heapSize++);
         }
       }
+    }
+  }
 
-      if (minDocid == Qry.INVALID_DOCID)
-        break;				// All docids have been processed.  Done.
-      
-      //  Create a new posting that is the union of the posting lists
-      //  that match the minDocid.  Save it.
-      //  Note:  This implementation assumes that a location will not appear
-      //  in two or more arguments.  #SYN (apple apple) would break it.
-
-      List<Integer> positions = new ArrayList<Integer>();
-
-      for (Qry q_i: this.args) {
-    	  if (q_i.docIteratorHasMatch (null) &&
-    			  (q_i.docIteratorGetMatch () == minDocid)) {
-    		  Vector<Integer> locations_i =
-    				  ((QryIop) q_i).docIteratorGetMatchPosting().positions;
-    		  positions.addAll (locations_i);
-    		  q_i.docIteratorAdvancePast (minDocid);
-    	  }
-      }
+  /**
+   *  Merge the locations of the arguments in the current group into
+   *  the positions array, without duplicates.
+   *  @param groupSize The number of arguments in the group.
+   *  @return The number of locations.
+   */
+  private int mergePositions (int groupSize) {
+
+    int heapSize = 0;
+    int maxPositions = 0;
+
+    for (int g=0; g<groupSize; g++) {
+      QryIop q_i = this.getArg (this.group[g]);
+      int tf_i = q_i.docIteratorGetMatchTf ();
+
+      if (tf_i == 0)
+        continue;
+
+      this.runLocations[g] = q_i.docIteratorGetMatchPositions ();
+      this.runNext[g] = q_i.docIteratorGetMatchPositionsStart ();
+      this.runEnd[g] = this.runNext[g] + tf_i;
+      this.runLocation[g] = this.runLocations[g][this.runNext[g]];
+      this.runHeap[heapSize++] = g;
+      maxPositions += tf_i;
+    }
+
+    if (this.positions.length < maxPositions)
+      this.positions = new int[Math.max (maxPositions, 2 * this.positions.length)];
+
+    for (int h=heapSize/2 - 1; h>=0; h--)
+      siftDown (this.runHeap, this.runLocation, h, heapSize);
+
+    int n = 0;
+
+    while (heapSize > 0) {
+      int g = this.runHeap[0];
+      int location = this.runLocation[g];
+
+      if ((n == 0) || (this.positions[n - 1] != location))
+        this.positions[n++] = location;
+
+      if (++this.runNext[g] < this.runEnd[g])
+        this.runLocation[g] = this.runLocations[g][this.runNext[g]];
+      else
+        this.runHeap[0] = this.runHeap[--heapSize];
+
+      siftDown (this.runHeap, this.runLocation, 0, heapSize);
+    }
+
+    return n;
+  }
+
+  /**
+   *  Restore the order of a min-heap below a heap entry.  Entries are
+   *  ordered by key, and then by entry, so that ties are deterministic.
+   *  @param heap The heap entries.
+   *  @param keys The key of each entry.
+   *  @param h The index of the heap entry.
+   *  @param size The number of heap entries.
+   */
+  private static void siftDown (int[] heap, int[] keys, int h, int size) {
+
+    int entry = heap[h];
+
+    while (true) {
+      int child = 2 * h + 1;
+
+      if (child >= size)
+        break;
+
+      if ((child + 1 < size) && less (heap[child + 1], heap[child], keys))
+        child ++;
 
-      Collections.sort (positions);
-      this.invertedList.appendPosting (minDocid, positions);
+      if (! less (heap[child], entry, keys))
+        break;
+
+      heap[h] = heap[child];
+      h = child;
     }
+
+    heap[h] = entry;
   }
 
+  /**
+   *  Restore the order of a min-heap above a heap entry.
+   *  @param heap The heap entries.
+   *  @param keys The key of each entry.
+   *  @param h The index of the heap entry.
+   */
+  private static void siftUp (int[] heap, int[] keys, int h) {
+
+    int entry = heap[h];
+
+    while (h > 0) {
+      int parent = (h - 1) / 2;
+
+      if (! less (entry, heap[parent], keys))
+        break;
+
+      heap[h] = heap[parent];
+      h = parent;
+    }
+
+    heap[h] = entry;
+  }
+
+  /**
+   *  Heap order:  true if entry a's key is less than entry b's, or
+   *  they are equal and a is the smaller entry.
+   */
+  private static boolean less (int a, int b, int[] keys) {
+    return (keys[a] < keys[b]) || ((keys[a] == keys[b]) && (a < b));
+  }
 }
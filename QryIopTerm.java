@@ -16,6 +16,17 @@ public class QryIopTerm extends QryIop {
 
   private String term;
 
+  /**
+   *  An inverted list that was read by prefetch, or null.
+   */
+  private InvList prefetchedList = null;
+
+  /**
+   *  Whether the term's inverted list is always streamed, whatever the
+   *  retrieval model's streamingTerms option is.
+   */
+  private boolean streaming = false;
+
   /**
    *  The term is assumed to match the body field.
    *  @param termString A term string.
@@ -35,13 +46,100 @@ public class QryIopTerm extends QryIop {
     this.field = fieldString;
   }
 
+  /**
+   *  The term matches in the specified field, and its inverted list may
+   *  always be streamed (e.g., for one of many terms in an expansion).
+   *  @param termString A term string.
+   *  @param fieldString A field string.
+   *  @param streaming Whether the inverted list is always streamed.
+   */
+  public QryIopTerm(String termString, String fieldString, boolean streaming) {
+    this(termString, fieldString);
+    this.streaming = streaming;
+  }
+
   /**
    *  Evaluate the query operator; the result is an internal inverted
-   *  list that may be accessed via the internal iterators.
+   *  list that may be accessed via the internal iterators.  If the
+   *  inverted list was prefetched, it is used.
+   *  @param r A retrieval model that may set evaluation options
+   *  @throws IOException Error accessing the Lucene index.
+   */
+  protected void evaluate (RetrievalModel r) throws IOException {
+    if (this.prefetchedList != null) {
+      this.invertedList = this.prefetchedList;
+      this.prefetchedList = null;
+    } else {
+      this.invertedList = this.getInvList(r);
+    }
+  }
+
+  /**
+   *  Get the term's inverted list before the query operator is
+   *  initialized, so that several lists can be read in parallel.  The
+   *  positionsRequired flag must already be set.
+   *  @param r A retrieval model that may set evaluation options
    *  @throws IOException Error accessing the Lucene index.
    */
-  protected void evaluate () throws IOException {
-    this.invertedList = new InvList(this.term, this.field);
+  public void prefetch (RetrievalModel r) throws IOException {
+    this.prefetchedList = this.getInvList(r);
+  }
+
+  /**
+   *  Get the term's inverted list from wherever the evaluation options
+   *  say that inverted lists come from.
+   *  @param r A retrieval model that may set evaluation options
+   *  @return The inverted list.
+   *  @throws IOException Error accessing the Lucene index.
+   */
+  private InvList getInvList (RetrievalModel r) throws IOException {
+    boolean compressed = (r != null) && r.compressedPostings;
+    boolean positions = this.positionsRequired;
+
+    //  An exported file provides the list, unless it doesn't have the
+    //  field or the positions.
+
+    if (InvListFile.isOpen()) {
+      InvList list = InvListFile.getInvList(this.term, this.field, positions);
+
+      if (list != null)
+        return list;
+    }
+
+    if (this.streaming || ((r != null) && r.streamingTerms))
+      return new InvListStream(this.term, this.field, positions);
+    else if (InvListCache.isEnabled())
+      return InvListCache.get(this.term, this.field, compressed, positions,
+                              (r != null) && r.blockMax);
+    else if (compressed)
+      return new InvListCompressed(new InvList(this.term, this.field, positions));
+    else
+      return new InvList(this.term, this.field, positions);
+  }
+
+  /**
+   *  Get the term string.
+   *  @return The processed (stemmed, lower-cased, etc) term string.
+   */
+  public String getTerm () {
+    return this.term;
+  }
+
+  /**
+   *  TERM operators choose for themselves whether their inverted lists
+   *  come from the cache, in getInvList.
+   *  @return false
+   */
+  protected boolean isResultCacheable () {
+    return false;
+  }
+
+  /**
+   *  Get a canonical string version of this query operator.
+   *  @return The canonical string version of this query operator.
+   */
+  public String getCanonicalForm () {
+    return (this.term + "." + this.field);
   }
 
   /**
@@ -7,13 +7,16 @@ import java.util.*;
 /**
  *  The WINDOW operator for all retrieval models.
  */
-public class QryIopWindow extends QryIop {
+public class QryIopWindow extends QryIopProximity {
 
 	/**
-	 *  This query operator has a parameter (eg. 2 in #WINDOW/2), that 
-	 *  is not considered an argument.
+	 *  Scratch space for the location matcher:  the index of the next
+	 *  location of each argument, the current location of each argument,
+	 *  and a min-heap of the arguments ordered by current location.
 	 */
-	protected int maxDistance;
+	private int[] cursor;
+	private int[] current;
+	private int[] heap;
 
 	/**
 	 *  Custom constructor
@@ -23,117 +26,165 @@ public class QryIopWindow extends QryIop {
 	}
 
 	/**
-	 *  Evaluate the query operator; the result is an internal inverted
-	 *  list that may be accessed via the internal iterators.
-	 *  @throws IOException Error accessing the Lucene index.
+	 *  Get the canonical name of this query operator.
+	 *  @return The canonical name of this query operator.
 	 */
-	protected void evaluate () throws IOException {
+	protected String getCanonicalName () {
+		return "#window/" + this.maxDistance;
+	}
 
-		//  Create an empty inverted list.  If there are no query arguments,
-		//  that's the final result.
+	/**
+	 *  Find the locations in one document where every argument occurs,
+	 *  in any order, within a window of maxDistance locations.  Matches
+	 *  do not share argument locations.  The location of a match is the
+	 *  last location in its window.
+	 *  <p>
+	 *  Each argument has a current location.  The window spans from the
+	 *  smallest to the largest current location.  If it is a match,
+	 *  every argument moves to its next location; otherwise only the
+	 *  argument with the smallest location moves.  A min-heap finds that
+	 *  argument, and the largest location is tracked as locations move,
+	 *  because locations only increase.  Each step costs O(log k) for k
+	 *  arguments.
+	 *  </p>
+	 *  @param matches Receives the matching locations, in increasing order.
+	 *  @param locations The location array of each argument.
+	 *  @param start The index of each argument's first location.
+	 *  @param end The index just past each argument's last location.
+	 *  @return The number of matches.
+	 */
+	protected int getMatches(int[] matches, int[][] locations,
+			int[] start, int[] end) {
 
-		this.invertedList = new InvList (this.getField());
+		int numArgs = locations.length;
+		int numMatches = 0;
+		int maxLoc = 0;
+		boolean matchFound = true;
 
-		if (args.size () == 0)	return;
+		if (this.cursor == null) {
+			this.cursor = new int[numArgs];
+			this.current = new int[numArgs];
+			this.heap = new int[numArgs];
+		}
 
-		//  Each pass of the loop adds 1 document to result inverted list
-		//  until all of the argument inverted lists are depleted.
+		System.arraycopy (start, 0, this.cursor, 0, numArgs);
 
 		while (true) {
-			//  Find the minimum next document id that contains all arguments.
-			// This is the condition for a document to be in the result set.
-			int minDocid = Qry.INVALID_DOCID;
-			boolean allMatch = false;
-			while(!allMatch){
-				allMatch = true;
-				for (int i=0; i<this.args.size(); i++) {
-					Qry q_i = this.args.get(i);
-					if(i > 0 && minDocid != Qry.INVALID_DOCID)
-						q_i.docIteratorAdvanceTo(minDocid);
-					if (q_i.docIteratorHasMatch (null)) {
-
-						int q_iDocid = q_i.docIteratorGetMatch ();
-						if(i == 0)
-							minDocid = q_iDocid;
-						if(i > 0 && minDocid != q_iDocid)	{
-							this.args.get(0).docIteratorAdvancePast(minDocid);
-							allMatch = false;
-							break;
-						}
-					}
-					else{
-						allMatch = false;
-						minDocid = Qry.INVALID_DOCID;
-						break;
-					}
+
+			if (matchFound) {
+
+				//  Every argument moves to its next location.
+
+				for (int i=0; i<numArgs; i++) {
+					if (this.cursor[i] >= end[i])
+						return numMatches;
+
+					this.current[i] = locations[i][this.cursor[i]++];
+					this.heap[i] = i;
+					maxLoc = (i == 0) ? this.current[i] : Math.max (maxLoc, this.current[i]);
 				}
 
-				if (minDocid == Qry.INVALID_DOCID)
-					break;				// All docids have been processed.  Done.
-			}
+				for (int h=numArgs/2 - 1; h>=0; h--)
+					this.siftDown (h, numArgs);
+
+			} else {
+
+				//  The argument with the smallest location moves.
 
-			if (minDocid == Qry.INVALID_DOCID)
-				break;				// All docids have been processed.  Done.
-
-			
-			// Now build the inverted list for this document
-			List<Integer> positions = new ArrayList<Integer>();
-			// postings for all the arguments
-			List<Vector<Integer>> postingsLists = new ArrayList<Vector<Integer>>();
-			for (Qry q_i: this.args) {
-				assert q_i.docIteratorHasMatch (null) 
-					&& q_i.docIteratorGetMatch () == minDocid ;
-				Vector<Integer> locations_i =
-						((QryIop) q_i).docIteratorGetMatchPosting().positions;
-				postingsLists.add(locations_i);
-				q_i.docIteratorAdvancePast (minDocid);
+				int i = this.heap[0];
+
+				if (this.cursor[i] >= end[i])
+					return numMatches;
+
+				this.current[i] = locations[i][this.cursor[i]++];
+				maxLoc = Math.max (maxLoc, this.current[i]);
+				this.siftDown (0, numArgs);
 			}
-			getValidWindowPositions(positions, postingsLists);
-			Collections.sort (positions);
-			if(positions.size() > 0)	this.invertedList.appendPosting (minDocid, positions);
+
+			int minLoc = this.current[this.heap[0]];
+
+			matchFound = (maxLoc - minLoc + 1 <= this.maxDistance);
+
+			if (matchFound)
+				matches[numMatches++] = maxLoc;
 		}
 	}
 
-	private void getValidWindowPositions(List<Integer> positions,
-			List<Vector<Integer>> postingsLists) {
-		
-		List<ListIterator<Integer>> postingsIterators = new ArrayList<ListIterator<Integer>>();
-		for(Vector<Integer> postings : postingsLists)
-			postingsIterators.add(postings.listIterator());
-		int numPostings = postingsLists.size();
+	/**
+	 *  Find the matching locations in one document where the arguments
+	 *  are dense.  A window that ends at location l contains argument i
+	 *  if l is in argument i's bitmap extended forward by maxDistance-1
+	 *  locations.  If the extended bitmaps don't intersect, no window
+	 *  contains every argument, so there is no match.  Otherwise the
+	 *  windows may share locations, which matches don't, so getMatches
+	 *  finds the matches.
+	 *  @param matches Receives the matching locations, in increasing order.
+	 *  @param locations The location array of each argument.
+	 *  @param start The index of each argument's first location.
+	 *  @param end The index just past each argument's last location.
+	 *  @param words The number of bitmap words that the locations need.
+	 *  @return The number of matches.
+	 */
+	protected int getMatchesBitmap(int[] matches, int[][] locations,
+			int[] start, int[] end, int words) {
 
-		int minIndex, position;
-		boolean postingEmpty = false;
-		boolean matchFound = true;
-		minIndex = position = 0;		// initial values don't matter
-		List<Integer> locations = new ArrayList<Integer>();
-		
-		while(!postingEmpty){
-			// advance all iterators or only the one with minimum index based on matchFound
-			for(int i=0; i<numPostings; i++){
-				if(!matchFound && i != minIndex)	continue;
-				ListIterator<Integer> it = postingsIterators.get(i);
-				if(!it.hasNext()){
-					postingEmpty = true;
-					break;
-				}
-				position = it.next();
-				if(matchFound)		locations.add(position);
-				else				locations.set(minIndex, position);
-			}
-			
-			if(locations.size() < numPostings)	break;
-			
-			int maxLoc = Collections.max(locations);
-			int minLoc = Collections.min(locations);
-			minIndex = locations.indexOf(minLoc);
-			int windowSize = maxLoc - minLoc + 1;
-			matchFound = windowSize <= this.maxDistance;
-			
-			if(matchFound){
-				positions.add(maxLoc);
-				locations.clear();
-			}
+		int numArgs = locations.length;
+
+		this.setBitmaps (locations, start, end, words);
+		LocationBitmap.dilate (this.bitmap, this.scratchBitmap, words,
+				this.maxDistance - 1);
+
+		for (int i=1; i<numArgs; i++) {
+
+			this.argBitmap = LocationBitmap.set (this.argBitmap, words,
+					locations[i], start[i], end[i]);
+			LocationBitmap.dilate (this.argBitmap, this.scratchBitmap, words,
+					this.maxDistance - 1);
+
+			if (! LocationBitmap.and (this.bitmap, this.argBitmap, words))
+				return 0;
+		}
+
+		return this.getMatches (matches, locations, start, end);
+	}
+
+	/**
+	 *  Restore the heap order below a heap entry.  Arguments are ordered
+	 *  by current location, and then by argument index, so that ties
+	 *  move the first argument.
+	 *  @param h The index of the heap entry.
+	 *  @param size The number of heap entries.
+	 */
+	private void siftDown (int h, int size) {
+
+		int arg = this.heap[h];
+
+		while (true) {
+			int child = 2 * h + 1;
+
+			if (child >= size)
+				break;
+
+			if ((child + 1 < size) &&
+					this.heapLess (this.heap[child + 1], this.heap[child]))
+				child ++;
+
+			if (! this.heapLess (this.heap[child], arg))
+				break;
+
+			this.heap[h] = this.heap[child];
+			h = child;
 		}
+
+		this.heap[h] = arg;
+	}
+
+	/**
+	 *  Heap order:  true if argument a's current location is before
+	 *  argument b's, or they are equal and a is the earlier argument.
+	 */
+	private boolean heapLess (int a, int b) {
+		return (this.current[a] < this.current[b]) ||
+				((this.current[a] == this.current[b]) && (a < b));
 	}
 }
@@ -2,8 +2,7 @@
  *  Copyright (c) 2015, Carnegie Mellon University.  All Rights Reserved.
  */
 import java.io.*;
-import java.util.HashMap;
-import java.util.Set;
+import java.util.*;
 
 /**
  *  The root class of all query operators that use a retrieval model
@@ -13,6 +12,25 @@ import java.util.Set;
  *  operator that returns a document scores (e.g., #AND (a #OR(b c)).
  *  Second, it is a place to store data structures and methods that are
  *  common to all query operators that calculate document scores.
+ *  <p>
+ *  For the Indri retrieval model, query operators that combine their
+ *  arguments' scores with a weighted geometric mean (#AND, #WAND) or a
+ *  weighted arithmetic mean (#WSUM) can use MaxScore to skip documents
+ *  that can't enter the top-k results.  The query is divided into
+ *  units:  the operator's arguments, except that nested geometric
+ *  means are expanded into their arguments, with their weights
+ *  multiplied.  Each unit has an upper bound on its score when it
+ *  matches a document, and on its default score when it doesn't.  A
+ *  document's score can only exceed the score of a document that
+ *  matches nothing by the gains of the units that it matches.  The
+ *  units are sorted by gain, and the smallest ones whose gains (with
+ *  the default scores of everything) can't reach the score threshold
+ *  are non-essential:  a document that only they match can't enter the
+ *  top k, so only the documents of the essential units are visited.
+ *  The non-essential units just advance to those documents.  Each
+ *  candidate is scored by the query tree as usual, so scores don't
+ *  change.  Geometric means are bounded in log space.
+ *  </p>
  */
 public abstract class QrySop extends Qry {
 	
@@ -22,6 +40,26 @@ public abstract class QrySop extends Qry {
   HashMap<Qry, Integer>  queryTermFrequencies = new HashMap<Qry, Integer>();
   protected double defaultScore = Double.MIN_VALUE;
 
+  /**
+   *  Bounds are increased by this fraction (of at least 1), so that the
+   *  rounding of the scores that the query tree computes can't make a
+   *  score exceed its bound.
+   */
+  private static final double MAXSCORE_BOUND_SLACK = 1e-9;
+
+  /**
+   *  MaxScore state:  the units, sorted by gain; their gains; the bound
+   *  of a document that matches only the first k units, for each k;
+   *  the number of non-essential units; and the score threshold, in
+   *  log space for geometric means.  maxScoreUnits is null until the
+   *  threshold is set.
+   */
+  private Qry[] maxScoreUnits = null;
+  private double[] maxScoreGains;
+  private double[] maxScorePrefixBounds;
+  private int maxScoreNonEssential;
+  private double maxScoreThreshold;
+
   /**
    *  Get a score for the document that docIteratorHasMatch matched.
    *  @param r The retrieval model that determines how scores are calculated.
@@ -49,6 +87,320 @@ public abstract class QrySop extends Qry {
     for (Qry q_i: this.args) {
       q_i.initialize (r);
     }
+
+    this.argOrder = null;
+    this.maxScoreUnits = null;
+  }
+
+  /**
+   *  Get the normalized weights that the query operator combines its
+   *  arguments' Indri scores with, if it uses MaxScore.
+   *  @return The weights, or null if the query operator doesn't use MaxScore.
+   */
+  protected double[] getMaxScoreWeights () {
+    return null;
+  }
+
+  /**
+   *  Indicates whether the query operator combines its arguments' Indri
+   *  scores with a weighted geometric mean, rather than a weighted
+   *  arithmetic mean.
+   *  @return True for a geometric mean, otherwise false.
+   */
+  protected boolean isGeometricMean () {
+    return true;
+  }
+
+  /**
+   *  Indicates whether MaxScore can evaluate the query operator, which
+   *  requires Indri, an operator that uses MaxScore, and arguments that
+   *  have score bounds.
+   *  @param r The retrieval model that determines how scores are calculated.
+   *  @return True if MaxScore can be used, otherwise false.
+   */
+  public boolean isMaxScoreSupported (RetrievalModel r) {
+
+    if (! (r instanceof RetrievalModelIndri) || (this.getMaxScoreWeights () == null))
+      return false;
+
+    for (Qry q_i: this.args)
+      if (! ((QrySop) q_i).hasScoreBounds (r))
+        return false;
+
+    return true;
+  }
+
+  /**
+   *  Indicates whether getScoreBound and getDefaultScoreBound can bound
+   *  the query operator's scores.
+   *  @param r The retrieval model that determines how scores are calculated.
+   *  @return True if the scores can be bounded, otherwise false.
+   */
+  public boolean hasScoreBounds (RetrievalModel r) {
+    return this.isMaxScoreSupported (r);
+  }
+
+  /**
+   *  Get an upper bound on the Indri score of every document that the
+   *  query operator matches.  Each argument either matches or has its
+   *  default score.
+   *  @param r The retrieval model that determines how scores are calculated.
+   *  @return The bound, or NaN if there is no bound.
+   *  @throws IOException Error accessing the Lucene index
+   */
+  public double getScoreBound (RetrievalModel r) throws IOException {
+
+    double[] weights = this.getMaxScoreWeights ();
+
+    if (weights == null)
+      return Double.NaN;
+
+    double bound = this.isGeometricMean () ? 1.0 : 0.0;
+
+    for (int i=0; i<this.args.size (); i++) {
+      QrySop q_i = (QrySop) this.args.get (i);
+      double b = Math.max (q_i.getScoreBound (r), q_i.getDefaultScoreBound (r));
+
+      if (this.isGeometricMean ())
+        bound *= Math.pow (b, weights[i]);
+      else
+        bound += weights[i] * b;
+    }
+
+    return bound;
+  }
+
+  /**
+   *  Get an upper bound on the Indri default score of every document.
+   *  @param r The retrieval model that determines how scores are calculated.
+   *  @return The bound, or NaN if there is no bound.
+   *  @throws IOException Error accessing the Lucene index
+   */
+  public double getDefaultScoreBound (RetrievalModel r) throws IOException {
+
+    double[] weights = this.getMaxScoreWeights ();
+
+    if (weights == null)
+      return Double.NaN;
+
+    double bound = this.isGeometricMean () ? 1.0 : 0.0;
+
+    for (int i=0; i<this.args.size (); i++) {
+      double b = ((QrySop) this.args.get (i)).getDefaultScoreBound (r);
+
+      if (this.isGeometricMean ())
+        bound *= Math.pow (b, weights[i]);
+      else
+        bound += weights[i] * b;
+    }
+
+    return bound;
+  }
+
+  /**
+   *  Set the score that a document must reach to enter the top-k
+   *  results, so that MaxScore can skip documents that can't.  The
+   *  threshold may only increase.  The query operator must be
+   *  initialized, and MaxScore must be supported.
+   *  @param r The retrieval model that determines how scores are calculated.
+   *  @param threshold The score of the k'th best document so far.
+   *  @throws IOException Error accessing the Lucene index
+   */
+  public void setMaxScoreThreshold (RetrievalModel r, double threshold)
+    throws IOException {
+
+    if (this.maxScoreUnits == null)
+      this.initializeMaxScore (r);
+
+    this.maxScoreThreshold =
+      this.isGeometricMean () ? Math.log (threshold) : threshold;
+
+    //  Comparisons with NaN bounds are false, so units without bounds
+    //  are always essential.
+
+    int n = this.maxScoreUnits.length;
+
+    while ((this.maxScoreNonEssential < n) &&
+           this.isBelowThreshold (this.maxScorePrefixBounds[this.maxScoreNonEssential + 1]))
+      this.maxScoreNonEssential ++;
+  }
+
+  /**
+   *  Divide the query into units, and sort them by their gains.
+   *  @param r The retrieval model that determines how scores are calculated.
+   *  @throws IOException Error accessing the Lucene index
+   */
+  private void initializeMaxScore (RetrievalModel r) throws IOException {
+
+    List<Qry> units = new ArrayList<Qry> ();
+    List<Double> weights = new ArrayList<Double> ();
+
+    if (this.isGeometricMean ()) {
+      this.getGeometricUnits (1.0, units, weights);
+    } else {
+      double[] w = this.getMaxScoreWeights ();
+
+      for (int i=0; i<this.args.size (); i++) {
+        units.add (this.args.get (i));
+        weights.add (w[i]);
+      }
+    }
+
+    //  Each unit's gain is how much it can add to the score of a
+    //  document, beyond its default score.
+
+    int n = units.size ();
+    final double[] gains = new double[n];
+    double base = 0.0;
+    Integer[] order = new Integer[n];
+
+    for (int i=0; i<n; i++) {
+      QrySop unit = (QrySop) units.get (i);
+      double w = weights.get (i);
+      double upper = unit.getScoreBound (r);
+      double lower = unit.getDefaultScoreBound (r);
+
+      if (this.isGeometricMean ()) {
+        base += w * Math.log (lower);
+        gains[i] = Math.max (0.0, w * (Math.log (upper) - Math.log (lower)));
+      } else {
+        base += w * lower;
+        gains[i] = Math.max (0.0, w * (upper - lower));
+      }
+
+      order[i] = i;
+    }
+
+    Arrays.sort (order, new Comparator<Integer> () {
+        public int compare (Integer a, Integer b) {
+          return Double.compare (gains[a], gains[b]);
+        }
+      });
+
+    this.maxScoreUnits = new Qry[n];
+    this.maxScoreGains = new double[n];
+    this.maxScorePrefixBounds = new double[n + 1];
+    this.maxScorePrefixBounds[0] = base;
+
+    for (int k=0; k<n; k++) {
+      this.maxScoreUnits[k] = units.get (order[k]);
+      this.maxScoreGains[k] = gains[order[k]];
+      this.maxScorePrefixBounds[k + 1] = this.maxScorePrefixBounds[k] + this.maxScoreGains[k];
+    }
+
+    this.maxScoreNonEssential = 0;
+  }
+
+  /**
+   *  Find the units of a geometric mean.  Arguments that are also
+   *  geometric means are expanded into their own arguments.
+   *  @param weight The weight of this query operator.
+   *  @param units Receives the units.
+   *  @param weights Receives the weights of the units.
+   */
+  private void getGeometricUnits (double weight, List<Qry> units, List<Double> weights) {
+
+    double[] w = this.getMaxScoreWeights ();
+
+    for (int i=0; i<this.args.size (); i++) {
+      Qry q_i = this.args.get (i);
+
+      if ((((QrySop) q_i).getMaxScoreWeights () != null) &&
+          ((QrySop) q_i).isGeometricMean ()) {
+        ((QrySop) q_i).getGeometricUnits (weight * w[i], units, weights);
+      } else {
+        units.add (q_i);
+        weights.add (weight * w[i]);
+      }
+    }
+  }
+
+  /**
+   *  Indicates whether a bound is below the score threshold, with
+   *  slack for rounding.
+   *  @param bound The bound, in the threshold's space.
+   *  @return True if the bound is below the threshold, otherwise false.
+   */
+  private boolean isBelowThreshold (double bound) {
+    return bound + MAXSCORE_BOUND_SLACK * Math.max (1.0, Math.abs (bound))
+      < this.maxScoreThreshold;
+  }
+
+  /**
+   *  An instantiation of docIteratorHasMatch that is true if the query
+   *  has a document that an essential unit matches, and whose bound
+   *  reaches the score threshold.  Until the threshold is set, this is
+   *  docIteratorHasMatchMin.
+   *  @param r The retrieval model that determines what is a match
+   *  @return True if the query matches, otherwise false.
+   */
+  protected boolean docIteratorHasMatchMaxScore (RetrievalModel r) {
+
+    if (this.maxScoreUnits == null)
+      return this.docIteratorHasMatchMin (r);
+
+    if (this.docIteratorHasMatchCache ())
+      return true;
+
+    int n = this.maxScoreUnits.length;
+    int first = this.maxScoreNonEssential;
+
+    while (true) {
+
+      //  The candidate is the smallest docid of the essential units.
+
+      int candidate = Qry.INVALID_DOCID;
+
+      for (int k=first; k<n; k++) {
+        Qry unit = this.maxScoreUnits[k];
+
+        if (unit.docIteratorHasMatch (r)) {
+          int docid = unit.docIteratorGetMatch ();
+
+          if ((candidate == Qry.INVALID_DOCID) || (docid < candidate))
+            candidate = docid;
+        }
+      }
+
+      if (candidate == Qry.INVALID_DOCID)
+        return false;
+
+      //  First bound the candidate as if it matched every non-essential
+      //  unit.  If that is enough, advance the non-essential units to
+      //  it, and bound it by the units that actually match.
+
+      double essentialGain = 0.0;
+
+      for (int k=first; k<n; k++)
+        if (this.maxScoreUnits[k].docIteratorHasMatch (r) &&
+            (this.maxScoreUnits[k].docIteratorGetMatch () == candidate))
+          essentialGain += this.maxScoreGains[k];
+
+      boolean skip = this.isBelowThreshold (this.maxScorePrefixBounds[first] + essentialGain);
+
+      if (! skip) {
+        double bound = this.maxScorePrefixBounds[0] + essentialGain;
+
+        for (int k=0; k<first; k++) {
+          Qry unit = this.maxScoreUnits[k];
+
+          unit.docIteratorAdvanceTo (candidate);
+
+          if (unit.docIteratorHasMatch (r) && (unit.docIteratorGetMatch () == candidate))
+            bound += this.maxScoreGains[k];
+        }
+
+        skip = this.isBelowThreshold (bound);
+      }
+
+      if (! skip) {
+        this.docIteratorSetMatchCache (candidate);
+        return true;
+      }
+
+      for (int k=first; k<n; k++)
+        this.maxScoreUnits[k].docIteratorAdvancePast (candidate);
+    }
   }
   
 	
@@ -3,6 +3,7 @@
  */
 
 import java.io.*;
+import java.util.Arrays;
 
 /**
  *  The AND operator for all retrieval models.
@@ -18,7 +19,7 @@ public class QrySopAnd extends QrySop {
 		if(r instanceof RetrievalModelUnrankedBoolean || r instanceof RetrievalModelRankedBoolean)
 			return this.docIteratorHasMatchAll (r);
 		else if(r instanceof RetrievalModelIndri)
-			return this.docIteratorHasMatchMin(r);
+			return this.docIteratorHasMatchMaxScore(r);
 		else
 			return false;
 	}
@@ -61,6 +62,16 @@ public class QrySopAnd extends QrySop {
 		}
 	}
 
+	/**
+	 *  The Indri #AND is a geometric mean with equal weights.
+	 *  @return The weights.
+	 */
+	protected double[] getMaxScoreWeights () {
+		double[] weights = new double[this.args.size()];
+		Arrays.fill(weights, 1.0 / (double) this.args.size());
+		return weights;
+	}
+
 	/**
 	 *  getScore for the UnrankedBoolean retrieval model.
 	 *  @param r The retrieval model that determines how scores are calculated.
@@ -72,7 +72,7 @@ public class QrySopScore extends QrySop {
 	 */
 	public double getScoreUnrankedBoolean (RetrievalModel r) throws IOException {
 		Qry q = this.args.get(0);
-		double count = (double) ((QryIop) q).docIteratorGetMatchPosting().tf;
+		double count = (double) ((QryIop) q).docIteratorGetMatchTf();
 		return count > 0.0 ? 1.0 : 0.0;
 	}
 
@@ -84,7 +84,7 @@ public class QrySopScore extends QrySop {
 	 */
 	private double getScoreRankedBoolean (RetrievalModel r) throws IOException {
 		QryIop q = (QryIop) this.args.get(0);
-		return (double) q.docIteratorGetMatchPosting().tf;
+		return (double) q.docIteratorGetMatchTf();
 	}
 	
 	/**
@@ -123,12 +123,29 @@ public class QrySopScore extends QrySop {
 			return 0.0;
 		}
 		
+		double tf = (double) q.docIteratorGetMatchTf();
+		double doclen = (double) Idx.getFieldLength(field, docid);
+		return getBM25Score(model, q, tf, doclen, qtf);
+	}
+
+	/**
+	 *  The BM25 score of a term frequency and field length.
+	 *  @param model The BM25 retrieval model.
+	 *  @param q The query argument.
+	 *  @param tf The term frequency.
+	 *  @param doclen The field length.
+	 *  @param qtf The query term frequency.
+	 *  @return The score.
+	 *  @throws IOException Error accessing the Lucene index
+	 */
+	private double getBM25Score (RetrievalModelBM25 model, QryIop q, double tf,
+			double doclen, double qtf) throws IOException {
+		String field = q.getField();
+
 		// collect the statistics
 		//double N = (double) Idx.getDocCount(field);
 		double N = (double) Idx.getNumDocs();
 		double df = (double) q.getDf();
-		double tf = (double) q.docIteratorGetMatchPosting().tf;
-		double doclen = (double) Idx.getFieldLength(field, docid);
 		double avg_doclen = (double) Idx.getSumOfFieldLengths(field) / (double) Idx.getDocCount(field);
 		//TODO: Fix logic for qtf
 		//double qtf = 1.0;
@@ -145,15 +162,157 @@ public class QrySopScore extends QrySop {
 		
 		return rsj * tf_weight * user_weight;
 	}
-	
+
+	/**
+	 *  An upper bound on getUserWeightedScore for every document.  The
+	 *  tf weight is less than 1, so the bound is the RSJ weight times
+	 *  the user weight.
+	 *  @param model The BM25 retrieval model.
+	 *  @param qtf The query term frequency.
+	 *  @return The upper bound.
+	 *  @throws IOException Error accessing the Lucene index
+	 */
+	public double getUserWeightedScoreBound (RetrievalModelBM25 model, double qtf) throws IOException {
+		QryIop q = (QryIop) this.args.get(0);
+		double N = (double) Idx.getNumDocs();
+		double df = (double) q.getDf();
+		double k_3 = model.k_3;
+
+		double rsj = Math.max(0.0, Math.log((N - df + 0.5) / (df + 0.5)));
+		double user_weight = (k_3 + 1) * qtf / (k_3 + qtf);
+
+		return rsj * user_weight;
+	}
+
+	/**
+	 *  The score of a term frequency in a document, for evaluation that
+	 *  reads the argument's postings without the SCORE operator's
+	 *  docIterator (e.g., term-at-a-time).  It is the score that
+	 *  getUserWeightedScore (BM25) or getScore and getDefaultScore
+	 *  (Indri, for a tf of 0) give the document.
+	 *  @param r The BM25 or Indri retrieval model.
+	 *  @param docid An internal document id.
+	 *  @param tf The term frequency.
+	 *  @param qtf The query term frequency, which BM25 uses.
+	 *  @return The score.
+	 *  @throws IOException Error accessing the Lucene index
+	 */
+	public double getTermScore (RetrievalModel r, int docid, double tf, double qtf) throws IOException {
+		QryIop q = (QryIop) this.args.get(0);
+		double doclen = (double) Idx.getFieldLength(q.field, docid);
+
+		if (r instanceof RetrievalModelBM25)
+			return getBM25Score((RetrievalModelBM25) r, q, tf, doclen, qtf);
+		else if (r instanceof RetrievalModelIndri)
+			return getQueryLikelihood(r, q, tf, doclen);
+		else
+			throw new IllegalArgumentException
+			(r.getClass().getName() + " doesn't support term scores.");
+	}
+
+	/**
+	 *  The Indri scores of a SCORE operator can be bounded.
+	 *  @param r The retrieval model that determines how scores are calculated.
+	 *  @return True for Indri, otherwise false.
+	 */
+	public boolean hasScoreBounds (RetrievalModel r) {
+		return (r instanceof RetrievalModelIndri);
+	}
+
+	/**
+	 *  An upper bound on the Indri score of every document that the
+	 *  argument matches.  A document's tf is at most its field length
+	 *  and the argument's ctf, and the score grows as both grow
+	 *  together, so the score of a document that only contains ctf
+	 *  occurrences of the argument is a bound.  With the blockMax
+	 *  option, the largest block bound is used if it is tighter.  Only
+	 *  lists that were cached with the blockMax option or read from an
+	 *  inverted list file have block maxima.
+	 *  @param r The Indri retrieval model.
+	 *  @return The bound.
+	 *  @throws IOException Error accessing the Lucene index
+	 */
+	public double getScoreBound (RetrievalModel r) throws IOException {
+		QryIop q = (QryIop) this.args.get(0);
+		double ctf = (double) q.invertedList.ctf;
+		double bound = getQueryLikelihood(r, q, ctf, ctf);
+
+		if (r.blockMax) {
+			double[] bounds = this.getBlockScoreBounds(r, 1.0);
+
+			if (bounds != null) {
+				double max = 0.0;
+				for (double b : bounds)
+					max = Math.max(max, b);
+				bound = Math.min(bound, max);
+			}
+		}
+
+		return bound;
+	}
+
+	/**
+	 *  An upper bound on the Indri default score of every document.  The
+	 *  default score is largest for the shortest field length.
+	 *  @param r The Indri retrieval model.
+	 *  @return The bound.
+	 *  @throws IOException Error accessing the Lucene index
+	 */
+	public double getDefaultScoreBound (RetrievalModel r) throws IOException {
+		QryIop q = (QryIop) this.args.get(0);
+		return getQueryLikelihood(r, q, 0.0, 0.0);
+	}
+
+	/**
+	 *  Upper bounds on the score of every document in each block of the
+	 *  argument's inverted list, for dynamic pruning.  The score is
+	 *  largest for the block's largest tf and shortest field length.
+	 *  Block maxima aren't computed here, because reading the field
+	 *  length of every posting costs more than a single query saves.
+	 *  @param r The BM25 or Indri retrieval model.
+	 *  @param qtf The query term frequency, which BM25 uses.
+	 *  @return The bound of each block, or null if the inverted list
+	 *  doesn't have block maxima.
+	 *  @throws IOException Error accessing the Lucene index
+	 */
+	public double[] getBlockScoreBounds (RetrievalModel r, double qtf) throws IOException {
+		QryIop q = (QryIop) this.args.get(0);
+		InvList list = q.invertedList;
+
+		if (! list.hasBlockMaxima())
+			return null;
+
+		double[] bounds = new double[list.getNumBlocks()];
+
+		for (int b = 0; b < bounds.length; b++) {
+			double tf = (double) list.getBlockMaxTf(b);
+			double doclen = (double) list.getBlockMinLength(b);
+
+			if (r instanceof RetrievalModelBM25)
+				bounds[b] = getBM25Score((RetrievalModelBM25) r, q, tf, doclen, qtf);
+			else if (r instanceof RetrievalModelIndri)
+				bounds[b] = getQueryLikelihood(r, q, tf, doclen);
+			else
+				throw new IllegalArgumentException
+				(r.getClass().getName() + " doesn't support block score bounds.");
+		}
+
+		return bounds;
+	}
+
 	private double getQueryLikelihood(RetrievalModel r, int docid, QryIop q, boolean defaultScore) 
 			throws IOException{
+		double tf = defaultScore ? 0.0 : (double) q.docIteratorGetMatchTf();
+		double doclen = (double) Idx.getFieldLength(q.field, docid);
+		return getQueryLikelihood(r, q, tf, doclen);
+	}
+
+	private double getQueryLikelihood(RetrievalModel r, QryIop q, double tf, double doclen)
+			throws IOException{
 		double score = 1.0;
 		double lambda = ((RetrievalModelIndri) r).lambda;
 		double mu = (double) ((RetrievalModelIndri) r).mu;
-		double tf = defaultScore ? 0.0 : (double) q.docIteratorGetMatchPosting().tf;
 		double ctf = (double) q.invertedList.ctf;
-		double doclen = (double) Idx.getFieldLength(q.field, docid);
 		double corpuslen = Idx.getSumOfFieldLengths(q.field);
 		
 		score = (1.0 - lambda) * (tf + (mu * ctf / corpuslen)) / (doclen + mu);
@@ -172,6 +331,13 @@ public class QrySopScore extends QrySop {
 	public void initialize (RetrievalModel r) throws IOException {
 
 		Qry q = this.args.get (0);
+
+		//  Scores only use term frequencies, so the argument doesn't
+		//  need to read locations.
+
+		if (q instanceof QryIop)
+			((QryIop) q).positionsRequired = false;
+
 		q.initialize (r);
 	}
 	
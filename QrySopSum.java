@@ -8,18 +8,306 @@ import java.util.Set;
 
 /**
  *  The SUM operator for BM25 ranked retrieval model.
+ *  <p>
+ *  If the arguments are SCORE operators, the SUM operator can use WAND
+ *  to skip documents that can't enter the top-k results.  Each distinct
+ *  argument has an upper bound on its score.  The arguments are kept in
+ *  order of their current docids, and the first docid at which the
+ *  bounds of the arguments so far reach the score threshold (the
+ *  pivot) is the next document that could enter the top k.  The
+ *  arguments before it skip to it, and documents that only they match
+ *  are never scored.  A document whose bound equals the threshold is
+ *  still scored, because it could tie with the k'th document.
+ *  </p><p>
+ *  With the blockMax option, this is Block-Max WAND.  Each argument
+ *  also has a bound for each block of its inverted list.  Before the
+ *  pivot is scored, the bounds of the blocks that contain it are added
+ *  up, and if they don't reach the threshold, every document up to the
+ *  end of the first of those blocks is skipped.  Only inverted lists
+ *  that were cached with the blockMax option or read from an inverted
+ *  list file have block maxima; the others use their plain WAND
+ *  bounds.
+ *  </p>
  */
 public class QrySopSum extends QrySop {
 
+	/**
+	 *  Score bounds are increased by this fraction, so that adding
+	 *  argument scores in a different order than their bounds can't
+	 *  make a score exceed its bound.
+	 */
+	private static final double WAND_BOUND_SLACK = 1e-9;
+
+	/**
+	 *  The score that a document must reach to enter the top-k results,
+	 *  or negative infinity if every matching document is scored.
+	 */
+	private double wandThreshold = Double.NEGATIVE_INFINITY;
+
+	/**
+	 *  WAND state:  the distinct arguments (the ones getScoreBM25
+	 *  scores), their score bounds, their current docids, and the
+	 *  arguments that have postings, in docid order.  Null until the
+	 *  threshold is set.  wandBlockBounds[i] has the bound of each
+	 *  block of argument i, or is null if block maxima aren't used.
+	 */
+	private QrySopScore[] wandArgs = null;
+	private double[] wandBounds;
+	private double[][] wandBlockBounds;
+	private int[] wandDocids;
+	private int[] wandOrder;
+	private int wandSize;
+
 	/**
 	 *  Indicates whether the query has a match.
 	 *  @param r The retrieval model that determines what is a match
 	 *  @return True if the query matches, otherwise false.
 	 */
 	public boolean docIteratorHasMatch (RetrievalModel r) {
+		if (this.wandArgs != null)
+			return this.docIteratorHasMatchWand (r);
+
 		return this.docIteratorHasMatchMin (r);
 	}
 
+	/**
+	 *  An instantiation of docIteratorHasMatch that is true if the
+	 *  query has a document whose score bound reaches the threshold.
+	 *  @param r The retrieval model that determines what is a match
+	 *  @return True if the query matches, otherwise false.
+	 */
+	private boolean docIteratorHasMatchWand (RetrievalModel r) {
+
+		if (this.docIteratorHasMatchCache ())
+			return true;
+
+		while (true) {
+
+			//  Update the docids of the arguments, drop the ones that are
+			//  exhausted, and restore docid order.  Only the arguments that
+			//  advanced are out of order, so the insertion sort is cheap.
+
+			int size = 0;
+
+			for (int p=0; p<this.wandSize; p++) {
+				int i = this.wandOrder[p];
+
+				if (this.wandArgs[i].docIteratorHasMatch (r)) {
+					this.wandDocids[i] = this.wandArgs[i].docIteratorGetMatch ();
+					this.wandOrder[size++] = i;
+				}
+			}
+
+			this.wandSize = size;
+
+			for (int p=1; p<size; p++) {
+				int i = this.wandOrder[p];
+				int j = p - 1;
+
+				while ((j >= 0) && (this.wandDocids[this.wandOrder[j]] > this.wandDocids[i])) {
+					this.wandOrder[j + 1] = this.wandOrder[j];
+					j--;
+				}
+
+				this.wandOrder[j + 1] = i;
+			}
+
+			//  Find the pivot.  If the bounds of all of the arguments
+			//  don't reach the threshold, no document can enter the top k.
+
+			double bound = 0.0;
+			int pivot = -1;
+
+			for (int p=0; p<size; p++) {
+				bound += this.wandBounds[this.wandOrder[p]];
+
+				if (bound >= this.wandThreshold) {
+					pivot = p;
+					break;
+				}
+			}
+
+			if (pivot < 0)
+				return false;
+
+			int pivotDocid = this.wandDocids[this.wandOrder[pivot]];
+
+			//  Block-Max WAND:  check the bounds of the blocks that contain
+			//  the pivot, and skip to the end of the first block if they are
+			//  too small.
+
+			int next = this.getBlockSkip (pivot, pivotDocid);
+
+			if (next != Qry.INVALID_DOCID) {
+				for (int p=0; (p<size) && (this.wandDocids[this.wandOrder[p]] < next); p++)
+					this.wandArgs[this.wandOrder[p]].docIteratorAdvanceTo (next);
+
+				continue;
+			}
+
+			//  If the first argument is at the pivot, so are the arguments
+			//  between them, and the pivot is scored.  Otherwise the
+			//  arguments before the pivot skip to it.
+
+			if (this.wandDocids[this.wandOrder[0]] == pivotDocid) {
+				this.docIteratorSetMatchCache (pivotDocid);
+				return true;
+			}
+
+			for (int p=0; p<pivot; p++)
+				this.wandArgs[this.wandOrder[p]].docIteratorAdvanceTo (pivotDocid);
+		}
+	}
+
+	/**
+	 *  Check whether the block bounds of a pivot reach the threshold.
+	 *  The arguments up to the pivot, and the ones after it that are
+	 *  also at the pivot docid, may match it.  Each of them is bounded
+	 *  by the block that contains the pivot until the end of that block,
+	 *  and the other arguments don't match until their current docids.
+	 *  @param pivot The index of the pivot in wandOrder.
+	 *  @param pivotDocid The pivot's docid.
+	 *  @return The docid to skip to, or Qry.INVALID_DOCID if the pivot
+	 *  can't be skipped.
+	 */
+	private int getBlockSkip (int pivot, int pivotDocid) {
+
+		int last = pivot;
+
+		while ((last + 1 < this.wandSize) &&
+		       (this.wandDocids[this.wandOrder[last + 1]] == pivotDocid))
+			last++;
+
+		int next = (last + 1 < this.wandSize) ?
+			this.wandDocids[this.wandOrder[last + 1]] : Integer.MAX_VALUE;
+		double bound = 0.0;
+
+		for (int p=0; p<=last; p++) {
+			int i = this.wandOrder[p];
+
+			if (this.wandBlockBounds[i] == null) {
+				bound += this.wandBounds[i];
+				continue;
+			}
+
+			QryIop q_i = this.wandArgs[i].getArg (0);
+			int block = q_i.docIteratorGetBlock (pivotDocid);
+
+			if (block < this.wandBlockBounds[i].length) {
+				bound += this.wandBlockBounds[i][block];
+				next = Math.min (next, q_i.invertedList.getBlockLastDocid (block) + 1);
+			}
+		}
+
+		if ((bound >= this.wandThreshold) || (next == Integer.MAX_VALUE))
+			return Qry.INVALID_DOCID;
+
+		return next;
+	}
+
+	/**
+	 *  Indicates whether WAND can evaluate the query operator, which
+	 *  requires BM25 and arguments that are all SCORE operators.
+	 *  @param r The retrieval model that determines how scores are calculated.
+	 *  @return True if WAND can be used, otherwise false.
+	 */
+	public boolean isWandSupported (RetrievalModel r) {
+
+		if (! (r instanceof RetrievalModelBM25) || (this.args.size () == 0))
+			return false;
+
+		for (Qry q_i: this.args)
+			if (! (q_i instanceof QrySopScore))
+				return false;
+
+		return true;
+	}
+
+	/**
+	 *  Set the score that a document must reach to enter the top-k
+	 *  results, so that WAND can skip documents that can't.  The
+	 *  threshold may only increase.  The query operator must be
+	 *  initialized, and WAND must be supported.
+	 *  @param r The retrieval model that determines how scores are calculated.
+	 *  @param threshold The score of the k'th best document so far.
+	 *  @throws IOException Error accessing the Lucene index
+	 */
+	public void setWandThreshold (RetrievalModel r, double threshold) throws IOException {
+
+		if (this.wandArgs == null)
+			this.initializeWand ((RetrievalModelBM25) r);
+
+		this.wandThreshold = threshold;
+	}
+
+	/**
+	 *  Get the distinct arguments and their score bounds.  They are
+	 *  grouped the same way that getScoreBM25 groups them, so that a
+	 *  repeated argument has one bound for its query term frequency.
+	 *  @param r The BM25 retrieval model.
+	 *  @throws IOException Error accessing the Lucene index
+	 */
+	private void initializeWand (RetrievalModelBM25 r) throws IOException {
+
+		clearQueries();
+		for(Qry arg: this.args)	{
+			this.addQuery(arg);
+		}
+
+		Set<Qry> querySet = getQueries();
+		int n = querySet.size ();
+
+		this.wandArgs = new QrySopScore[n];
+		this.wandBounds = new double[n];
+		this.wandBlockBounds = new double[n][];
+		this.wandDocids = new int[n];
+		this.wandOrder = new int[n];
+		this.wandSize = n;
+
+		int i = 0;
+
+		for (Qry arg : querySet) {
+			double qtf = (double) this.getQueryFrequency(arg);
+
+			this.wandArgs[i] = (QrySopScore) arg;
+			this.wandBounds[i] =
+				((QrySopScore) arg).getUserWeightedScoreBound (r, qtf) * (1.0 + WAND_BOUND_SLACK);
+
+			//  The largest block bound is a tighter bound for the whole list.
+
+			if (r.blockMax) {
+				double[] blockBounds = ((QrySopScore) arg).getBlockScoreBounds (r, qtf);
+
+				if (blockBounds != null) {
+					double max = 0.0;
+
+					for (int b=0; b<blockBounds.length; b++) {
+						blockBounds[b] *= 1.0 + WAND_BOUND_SLACK;
+						max = Math.max (max, blockBounds[b]);
+					}
+
+					this.wandBounds[i] = Math.min (this.wandBounds[i], max);
+					this.wandBlockBounds[i] = blockBounds;
+				}
+			}
+			this.wandOrder[i] = i;
+			i++;
+		}
+	}
+
+	/**
+	 *  Initialize the query operator (and its arguments), including any
+	 *  internal iterators.  WAND is off until the threshold is set.
+	 *  @param r A retrieval model that guides initialization
+	 *  @throws IOException Error accessing the Lucene index.
+	 */
+	public void initialize (RetrievalModel r) throws IOException {
+		super.initialize (r);
+
+		this.wandArgs = null;
+		this.wandThreshold = Double.NEGATIVE_INFINITY;
+	}
+
 	/**
 	 *  Get a score for the document that docIteratorHasMatch matched.
 	 *  @param r The retrieval model that determines how scores are calculated.
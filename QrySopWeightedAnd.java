@@ -23,7 +23,7 @@ public class QrySopWeightedAnd extends QrySop {
 	 */
 	public boolean docIteratorHasMatch (RetrievalModel r) {
 		if(r instanceof RetrievalModelIndri)
-			return this.docIteratorHasMatchMin(r);
+			return this.docIteratorHasMatchMaxScore(r);
 		else
 			return false;
 	}
@@ -91,6 +91,17 @@ public class QrySopWeightedAnd extends QrySop {
 		return score;
 	}
 	
+	/**
+	 *  The Indri #WAND weights, normalized.
+	 *  @return The weights.
+	 */
+	protected double[] getMaxScoreWeights () {
+		double[] weights = new double[this.args.size()];
+		for(int i=0; i<weights.length; i++)
+			weights[i] = this.weights.get(i) / this.sumOfWeights;
+		return weights;
+	}
+
 	/**
 	 * Method to add a weight along side an argument
 	 */
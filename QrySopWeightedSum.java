@@ -25,7 +25,7 @@ public class QrySopWeightedSum extends QrySop {
 	 */
 	public boolean docIteratorHasMatch (RetrievalModel r) {
 		if(r instanceof RetrievalModelIndri)
-			return this.docIteratorHasMatchMin(r);
+			return this.docIteratorHasMatchMaxScore(r);
 		else
 			return false;
 	}
@@ -93,6 +93,25 @@ public class QrySopWeightedSum extends QrySop {
 		return score;
 	}
 	
+	/**
+	 *  The Indri #WSUM weights, normalized.
+	 *  @return The weights.
+	 */
+	protected double[] getMaxScoreWeights () {
+		double[] weights = new double[this.args.size()];
+		for(int i=0; i<weights.length; i++)
+			weights[i] = this.weights.get(i) / this.sumOfWeights;
+		return weights;
+	}
+
+	/**
+	 *  The Indri #WSUM is an arithmetic mean.
+	 *  @return false
+	 */
+	protected boolean isGeometricMean () {
+		return false;
+	}
+
 	/**
 	 * Method to add a weight along side an argument
 	 */
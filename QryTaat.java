@@ -0,0 +1,250 @@
+/**
+ *  Copyright (c) 2015, Carnegie Mellon University.  All Rights Reserved.
+ */
+import java.io.*;
+import java.util.*;
+
+/**
+ *  Term-at-a-time (TAAT) evaluation of flat queries:  a BM25 #SUM, or
+ *  an Indri #AND or #WAND, of SCORE operators on plain terms (or a
+ *  single SCORE operator).  Most queries have this form.
+ *  <p>
+ *  Each term's postings are read in turn, straight from its inverted
+ *  list, and each document's score is accumulated.  The query isn't
+ *  initialized for document-at-a-time evaluation; only its SCORE
+ *  operators are, which reads their terms' inverted lists.  The terms
+ *  are read in the order that getScore combines them (for BM25,
+ *  the order of the grouped arguments), so the scores are identical to
+ *  document-at-a-time evaluation.  An Indri document also gets the
+ *  default score of each term that doesn't match it, in that order.
+ *  </p><p>
+ *  With an accumulator limit, the terms are read in order of
+ *  increasing df, so that the rarest terms choose the documents that
+ *  get accumulators.  Once the limit is reached, the continue strategy
+ *  reads the rest of the postings but only updates existing
+ *  accumulators, and the quit strategy stops reading postings.  After
+ *  quitting, Indri documents get the default scores of the terms that
+ *  weren't read.  Pruning changes the ranking.
+ *  </p><p>
+ *  Without a limit, a document's accumulator is found with an array
+ *  that is indexed by docid.  With a limit, it is found with a hash
+ *  map, so that memory is proportional to the limit, not to the
+ *  number of documents in the index.
+ *  </p>
+ */
+public class QryTaat {
+
+  //  --------------- Methods ---------------------------------------
+
+  /**
+   *  Indicates whether term-at-a-time evaluation supports a query.
+   *  @param q The query, which has been cleaned up.
+   *  @param r The retrieval model that determines how scores are calculated.
+   *  @return True if the query can be evaluated term-at-a-time.
+   */
+  public static boolean isSupported (Qry q, RetrievalModel r) {
+
+    if (q instanceof QrySopScore)
+      return isTermScore (q) &&
+        ((r instanceof RetrievalModelBM25) || (r instanceof RetrievalModelIndri));
+
+    if (! (((q instanceof QrySopSum) && (r instanceof RetrievalModelBM25)) ||
+           (((q instanceof QrySopAnd) || (q instanceof QrySopWeightedAnd)) &&
+            (r instanceof RetrievalModelIndri))))
+      return false;
+
+    if (q.args.size () == 0)
+      return false;
+
+    for (Qry q_i : q.args)
+      if (! isTermScore (q_i))
+        return false;
+
+    return true;
+  }
+
+  /**
+   *  Indicates whether a query argument is a SCORE operator on a term.
+   */
+  private static boolean isTermScore (Qry q) {
+    return (q instanceof QrySopScore) && (q.args.get (0) instanceof QryIopTerm);
+  }
+
+  /**
+   *  Evaluate a query term-at-a-time.  The query must be supported, and
+   *  it must not be initialized.
+   *  @param q The query.
+   *  @param r The retrieval model that determines how scores are calculated.
+   *  @param results The collector of the best documents.
+   *  @throws IOException Error accessing the Lucene index.
+   */
+  public static void evaluate (Qry q, RetrievalModel r, ScoreListCollector results)
+    throws IOException {
+
+    //  The SCORE operators, in the order that getScore combines them,
+    //  and their query term frequencies (BM25) or weights (Indri).
+    //  TERM operators are equal if their terms and fields are, so BM25
+    //  arguments can be grouped before their lists are read.
+
+    boolean indri = (r instanceof RetrievalModelIndri);
+    QrySopScore[] units;
+    double[] weights;
+
+    if (q instanceof QrySopScore) {
+      units = new QrySopScore[] { (QrySopScore) q };
+      weights = new double[] { 1.0 };
+    } else if (indri) {
+      units = new QrySopScore[q.args.size ()];
+      weights = ((QrySop) q).getMaxScoreWeights ();
+
+      for (int i=0; i<units.length; i++)
+        units[i] = (QrySopScore) q.args.get (i);
+    } else {
+      QrySopSum sum = (QrySopSum) q;
+
+      sum.clearQueries ();
+      for (Qry arg : sum.args)
+        sum.addQuery (arg);
+
+      Set<Qry> querySet = sum.getQueries ();
+      units = new QrySopScore[querySet.size ()];
+      weights = new double[units.length];
+
+      int i = 0;
+
+      for (Qry arg : querySet) {
+        units[i] = (QrySopScore) arg;
+        weights[i] = (double) sum.getQueryFrequency (arg);
+        i++;
+      }
+    }
+
+    //  Read the terms' inverted lists.  Initializing a SCORE operator
+    //  initializes its term, which uses a prefetched list if there is
+    //  one, and which getTermScore needs for the term's statistics.
+
+    InvList[] lists = new InvList[units.length];
+    long sumOfDfs = 0;
+
+    for (int i=0; i<units.length; i++) {
+      units[i].initialize (r);
+      lists[i] = units[i].getArg (0).invertedList;
+      sumOfDfs += lists[i].df;
+    }
+
+    //  The order in which the terms are read.  Pruning reads the
+    //  rarest terms first.
+
+    int limit = r.taatAccumulatorLimit;
+    Integer[] order = new Integer[units.length];
+
+    for (int i=0; i<order.length; i++)
+      order[i] = i;
+
+    if (limit < Integer.MAX_VALUE) {
+      final InvList[] l = lists;
+
+      Arrays.sort (order, new Comparator<Integer>() {
+          public int compare (Integer a, Integer b) {
+            return Integer.compare (l[a].df, l[b].df);
+          }
+        });
+    }
+
+    //  The accumulators.  Slot k holds the score of document docids[k],
+    //  and marks[k] is 1 + the position (in order) of the last term read
+    //  that matched it.  There can't be more accumulators than the
+    //  limit, the number of postings, or the number of documents.
+
+    int maxDocid = Idx.getMaxDocid ();
+    int capacity = (int) Math.min (Math.min (limit, sumOfDfs), maxDocid);
+    double[] scores = new double[capacity];
+    int[] marks = new int[capacity];
+    int[] docids = new int[capacity];
+    int size = 0;
+
+    //  A document's slot, found by docid.  slots[d] is 1 + the slot of
+    //  document d, or 0 if it doesn't have an accumulator.
+
+    int[] slots = null;
+    Map<Integer,Integer> slotMap = null;
+
+    if (limit < Integer.MAX_VALUE)
+      slotMap = new HashMap<Integer,Integer> ();
+    else
+      slots = new int[maxDocid];
+
+    boolean quit = false;
+
+    for (int p=0; p<order.length; p++) {
+      int i = order[p];
+      InvList list = lists[i];
+
+      for (int n=0; (! quit) && list.hasPosting (n); n++) {
+        int docid = list.getDocid (n);
+        int k;
+
+        if (slots != null) {
+          k = slots[docid] - 1;
+        } else {
+          Integer slot = slotMap.get (docid);
+          k = (slot == null) ? -1 : slot;
+        }
+
+        if (k < 0) {
+
+          //  Don't create an accumulator if the limit has been reached.
+
+          if (size >= limit) {
+            if (r.taatQuit) {
+              quit = true;
+              break;
+            }
+
+            continue;
+          }
+
+          k = size++;
+          docids[k] = docid;
+
+          if (slots != null)
+            slots[docid] = k + 1;
+          else
+            slotMap.put (docid, k);
+
+          //  An Indri document gets the default scores of the terms
+          //  that were read before it was found.
+
+          scores[k] = indri ? 1.0 : 0.0;
+
+          if (indri)
+            for (int p_j=0; p_j<p; p_j++) {
+              int j = order[p_j];
+              scores[k] *=
+                Math.pow (units[j].getTermScore (r, docid, 0.0, 1.0), weights[j]);
+            }
+        }
+
+        double tf = (double) list.getTf (n);
+
+        if (indri)
+          scores[k] *= Math.pow (units[i].getTermScore (r, docid, tf, 1.0), weights[i]);
+        else
+          scores[k] += units[i].getTermScore (r, docid, tf, weights[i]);
+
+        marks[k] = p + 1;
+      }
+
+      //  Indri documents that the term doesn't match get its default
+      //  score.
+
+      if (indri)
+        for (int k=0; k<size; k++)
+          if (marks[k] != p + 1)
+            scores[k] *= Math.pow (units[i].getTermScore (r, docids[k], 0.0, 1.0), weights[i]);
+    }
+
+    for (int k=0; k<size; k++)
+      results.add (docids[k], scores[k]);
+  }
+}
@@ -10,6 +10,83 @@
  */
 public abstract class RetrievalModel {
 
+  //  --------------- Evaluation options -----------------------------
+
+  //  These options don't change the ranking.  They change how query
+  //  operators produce it.
+
+  /**
+   *  If true, TERM operators read their inverted lists from Lucene
+   *  lazily, as their docIterators advance, instead of copying them
+   *  into memory when they are initialized.
+   */
+  public boolean streamingTerms = false;
+
+  /**
+   *  If true, TERM operators compress the inverted lists that they
+   *  copy into memory.  Ignored if streamingTerms is true.
+   */
+  public boolean compressedPostings = false;
+
+  /**
+   *  If true, proximity operators (e.g., #NEAR/n) compute the matches
+   *  of each document as their docIterators reach it, instead of
+   *  computing their inverted lists when they are initialized.
+   */
+  public boolean streamingProximity = false;
+
+  /**
+   *  If true, a BM25 #SUM of SCORE operators uses WAND to skip the
+   *  documents that can't enter the top-k results.  Only the top-k
+   *  results are the same as exhaustive evaluation.
+   */
+  public boolean wand = false;
+
+  /**
+   *  If true, an Indri #AND, #WAND, or #WSUM whose arguments can be
+   *  bounded uses MaxScore to skip the documents that can't enter the
+   *  top-k results.  Only the top-k results are the same as exhaustive
+   *  evaluation.
+   */
+  public boolean maxScore = false;
+
+  /**
+   *  If true, dynamic pruning (e.g., WAND) also uses the block maxima
+   *  of inverted lists, so that it can skip whole blocks of postings
+   *  whose score bounds can't reach the top-k results.
+   */
+  public boolean blockMax = false;
+
+  /**
+   *  If true, a flat BM25 #SUM or Indri #AND or #WAND of plain terms is
+   *  evaluated term-at-a-time (see QryTaat) instead of with docIterators.
+   *  Other queries are still evaluated document-at-a-time.
+   */
+  public boolean taat = false;
+
+  //  --------------- Pruning options --------------------------------
+
+  //  These options trade ranking accuracy for speed.  Unless they are
+  //  left at their defaults, the ranking may differ from exhaustive
+  //  evaluation.
+
+  /**
+   *  Term-at-a-time accumulator pruning:  once this many documents have
+   *  accumulators, the rest of the query's postings only update them.
+   *  Unless the limit is larger than the number of matching documents,
+   *  this changes the ranking.
+   */
+  public int taatAccumulatorLimit = Integer.MAX_VALUE;
+
+  /**
+   *  If true, term-at-a-time evaluation stops reading postings once the
+   *  accumulator limit is reached (quit), instead of reading the rest
+   *  of them to update the existing accumulators (continue).
+   */
+  public boolean taatQuit = false;
+
+  //  --------------- Methods ---------------------------------------
+
   /**
    *  The name of the default query operator for the retrieval model.
    *  @return The name of the default query operator.
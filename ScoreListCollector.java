@@ -0,0 +1,222 @@
+/**
+ *  Copyright (c) 2015, Carnegie Mellon University.  All Rights Reserved.
+ */
+import java.io.*;
+import java.util.*;
+
+/**
+ *  Collects the best documents of a query as they are scored, so that
+ *  a query that matches millions of documents doesn't create millions
+ *  of ScoreList entries only to print the first few.
+ *  <p>
+ *  The documents are kept in a min-heap of primitive arrays, whose
+ *  root is the worst document so far.  Documents are ranked the same
+ *  way that ScoreList.sort ranks them:  by score, and then by external
+ *  docid.  External docids are only read when two scores tie, because
+ *  reading them is expensive.
+ *  </p>
+ */
+public class ScoreListCollector {
+
+  //  --------------- Constants and variables -----------------------
+
+  /**
+   *  The initial capacity of the heap, if the depth is larger.
+   */
+  private static final int DEFAULT_CAPACITY = 128;
+
+  /**
+   *  The number of documents to keep.
+   */
+  private final int depth;
+
+  /**
+   *  The heap:  the internal docid, score, and (if it has been read)
+   *  external docid of each document.
+   */
+  private int size = 0;
+  private int[] docids;
+  private double[] scores;
+  private String[] externalIds;
+
+  //  --------------- Methods ---------------------------------------
+
+  /**
+   *  Create a collector.
+   *  @param depth The number of documents to keep.
+   */
+  public ScoreListCollector (int depth) {
+
+    if (depth < 1)
+      throw new IllegalArgumentException ("The collector depth must be >= 1.");
+
+    this.depth = depth;
+
+    int capacity = Math.min (depth, DEFAULT_CAPACITY);
+
+    this.docids = new int[capacity];
+    this.scores = new double[capacity];
+    this.externalIds = new String[capacity];
+  }
+
+  /**
+   *  Add a document, if it is better than the worst document kept.
+   *  @param docid An internal document id.
+   *  @param score The document's score.
+   *  @throws IOException Error accessing the Lucene index.
+   */
+  public void add (int docid, double score) throws IOException {
+
+    if (this.size < this.depth) {
+      if (this.size == this.docids.length) {
+        int n = Math.min (this.depth, 2 * this.size);
+        this.docids = Arrays.copyOf (this.docids, n);
+        this.scores = Arrays.copyOf (this.scores, n);
+        this.externalIds = Arrays.copyOf (this.externalIds, n);
+      }
+
+      this.docids[this.size] = docid;
+      this.scores[this.size] = score;
+      this.externalIds[this.size] = null;
+      this.siftUp (this.size++);
+      return;
+    }
+
+    //  The heap is full.  Replace the worst document if the new one is
+    //  better.
+
+    String externalId = null;
+
+    if (score < this.scores[0])
+      return;
+
+    if (score == this.scores[0]) {
+      externalId = Idx.getExternalDocid (docid);
+
+      if (externalId.compareTo (this.getExternalId (0)) > 0)
+        return;
+    }
+
+    this.docids[0] = docid;
+    this.scores[0] = score;
+    this.externalIds[0] = externalId;
+    this.siftDown (0);
+  }
+
+  /**
+   *  Indicates whether the collector has as many documents as it keeps,
+   *  so that a document must beat the threshold to be kept.
+   *  @return True if the collector is full, otherwise false.
+   */
+  public boolean isFull () {
+    return (this.size == this.depth);
+  }
+
+  /**
+   *  Get the score of the worst document kept.  A document whose score
+   *  is lower can't be kept.
+   *  @return The score, or negative infinity if the collector isn't full.
+   */
+  public double getThreshold () {
+    return this.isFull () ? this.scores[0] : Double.NEGATIVE_INFINITY;
+  }
+
+  /**
+   *  Get the documents that were kept.  They are not sorted.
+   *  @return The documents and their scores.
+   */
+  public ScoreList getScoreList () {
+
+    ScoreList r = new ScoreList ();
+
+    for (int h = 0; h < this.size; h++)
+      r.add (this.docids[h], this.scores[h]);
+
+    return r;
+  }
+
+  /**
+   *  Get the external docid of a heap entry, reading it if necessary.
+   *  @param h The index of the heap entry.
+   *  @return The external docid.
+   *  @throws IOException Error accessing the Lucene index.
+   */
+  private String getExternalId (int h) throws IOException {
+
+    if (this.externalIds[h] == null)
+      this.externalIds[h] = Idx.getExternalDocid (this.docids[h]);
+
+    return this.externalIds[h];
+  }
+
+  /**
+   *  Heap order:  true if heap entry a ranks below heap entry b.
+   *  @throws IOException Error accessing the Lucene index.
+   */
+  private boolean worse (int a, int b) throws IOException {
+
+    if (this.scores[a] != this.scores[b])
+      return (this.scores[a] < this.scores[b]);
+
+    return (this.getExternalId (a).compareTo (this.getExternalId (b)) > 0);
+  }
+
+  /**
+   *  Swap two heap entries.
+   */
+  private void swap (int a, int b) {
+
+    int docid = this.docids[a];
+    double score = this.scores[a];
+    String externalId = this.externalIds[a];
+
+    this.docids[a] = this.docids[b];
+    this.scores[a] = this.scores[b];
+    this.externalIds[a] = this.externalIds[b];
+    this.docids[b] = docid;
+    this.scores[b] = score;
+    this.externalIds[b] = externalId;
+  }
+
+  /**
+   *  Restore the order of the heap below a heap entry.
+   *  @param h The index of the heap entry.
+   *  @throws IOException Error accessing the Lucene index.
+   */
+  private void siftDown (int h) throws IOException {
+
+    while (true) {
+      int child = 2 * h + 1;
+
+      if (child >= this.size)
+        break;
+
+      if ((child + 1 < this.size) && this.worse (child + 1, child))
+        child ++;
+
+      if (! this.worse (child, h))
+        break;
+
+      this.swap (h, child);
+      h = child;
+    }
+  }
+
+  /**
+   *  Restore the order of the heap above a heap entry.
+   *  @param h The index of the heap entry.
+   *  @throws IOException Error accessing the Lucene index.
+   */
+  private void siftUp (int h) throws IOException {
+
+    while (h > 0) {
+      int parent = (h - 1) / 2;
+
+      if (! this.worse (h, parent))
+        break;
+
+      this.swap (h, parent);
+      h = parent;
+    }
+  }
+}